@@ -0,0 +1,210 @@
+package io.github.kbiakov.codeview.highlight.parser;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact decorations of a content: runs of styles kept as pairs of ints
+ * (start position, style id) in an {@link IntStore}, instead of a
+ * {@link ParseResult} object per run. Runs are ordered by start position,
+ * a run lasts till the start of the next one.
+ *
+ * <p>Runs are filled by one thread & read after they're published, they're
+ * not synchronized.
+ */
+public class DecorationRuns implements Closeable {
+
+  /**
+   * Style keys by style ids of these runs, there are a few of them.
+   */
+  private final List<String> styleKeys = new ArrayList<String>();
+  private final Map<String, Integer> styleIds = new HashMap<String, Integer>();
+
+  protected final IntStore store;
+  /**
+   * The length of the content.
+   */
+  protected int end;
+
+  /**
+   * Constructor.
+   *
+   * @param store the store of runs, it's owned by the runs
+   */
+  public DecorationRuns(IntStore store) {
+    this.store = store;
+  }
+
+  /**
+   * @return the number of runs
+   */
+  public int size() {
+    return store.size() / 2;
+  }
+
+  /**
+   * @param idx the index of the run
+   * @return the start position of the run
+   */
+  public int getStart(int idx) {
+    return store.get(idx * 2);
+  }
+
+  /**
+   * @param idx the index of the run
+   * @return the end position of the run
+   */
+  public int getEnd(int idx) {
+    return idx + 1 < size() ? getStart(idx + 1) : end;
+  }
+
+  /**
+   * @param idx the index of the run
+   * @return the style key of the run
+   */
+  public String getStyleKey(int idx) {
+    return styleKey(store.get(idx * 2 + 1));
+  }
+
+  /**
+   * Find the run which covers the position.
+   *
+   * @param pos the position in the content
+   * @return the index of the run, -1 if the position is before the first run
+   */
+  public int indexAt(int pos) {
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (getStart(mid) <= pos) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  /**
+   * Add a run after the others.
+   *
+   * @param start the start position of the run
+   * @param styleKey the style key of the run
+   */
+  public void add(int start, String styleKey) {
+    store.add(start);
+    store.add(styleId(styleKey));
+  }
+
+  /**
+   * Add the decorations of a job (pairs of start position & style key),
+   * runs of the same style as the last one are merged into it.
+   *
+   * @param decorations the decorations
+   * @param end the end of the decorated content
+   */
+  public void addAll(List<Object> decorations, int end) {
+    for (int i = 0, n = decorations.size(); i < n; i += 2) {
+      int start = (Integer) decorations.get(i);
+      int styleId = styleId((String) decorations.get(i + 1));
+      int last = store.size() - 1;
+      if (last > 0 && store.get(last) == styleId) {
+        continue;
+      }
+      store.add(start);
+      store.add(styleId);
+    }
+    this.end = end;
+  }
+
+  /**
+   * @return the end position of the last run
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * @param end the end position of the last run (the length of the content)
+   */
+  public void setEnd(int end) {
+    this.end = end;
+  }
+
+  /**
+   * Convert the runs of the range to parse results, to use them where
+   * results are expected.
+   *
+   * @param from the start position of the range
+   * @param to the end position of the range
+   * @return the parse results clipped by the range
+   */
+  public List<ParseResult> toParseResults(int from, int to) {
+    List<ParseResult> results = new ArrayList<ParseResult>();
+    for (int i = Math.max(0, indexAt(from)), n = size(); i < n; i++) {
+      int start = Math.max(from, getStart(i));
+      int runEnd = Math.min(to, getEnd(i));
+      if (start >= to) {
+        break;
+      }
+      if (runEnd > start) {
+        List<String> keys = new ArrayList<String>(1);
+        keys.add(getStyleKey(i));
+        results.add(new ParseResult(start, runEnd - start, keys));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * View of the runs as parse results, a result is created when it's
+   * accessed, to use runs where results of the whole content are expected
+   * without keeping them.
+   *
+   * @return the parse results, one per run
+   */
+  public List<ParseResult> asParseResults() {
+    return new ParseResults();
+  }
+
+  @Override
+  public void close() {
+    store.close();
+  }
+
+  private int styleId(String styleKey) {
+    Integer id = styleIds.get(styleKey);
+    if (id == null) {
+      id = styleKeys.size();
+      styleKeys.add(styleKey);
+      styleIds.put(styleKey, id);
+    }
+    return id;
+  }
+
+  private String styleKey(int styleId) {
+    return styleKeys.get(styleId);
+  }
+
+  private class ParseResults extends AbstractList<ParseResult> implements RandomAccess {
+
+    @Override
+    public ParseResult get(int idx) {
+      int start = getStart(idx);
+      List<String> keys = new ArrayList<String>(1);
+      keys.add(getStyleKey(idx));
+      return new ParseResult(start, getEnd(idx) - start, keys);
+    }
+
+    @Override
+    public int size() {
+      return DecorationRuns.this.size();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package io.github.kbiakov.codeview.highlight.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints with random access. Values are kept on
+ * the Java heap, in a direct buffer or in a memory-mapped temporary file,
+ * the last two don't count against the heap limit of the application.
+ */
+public abstract class IntStore implements Closeable {
+
+  /**
+   * Initial capacity in ints.
+   */
+  protected static final int INITIAL_CAPACITY = 1024;
+  /**
+   * Number of values.
+   */
+  protected int size;
+
+  /**
+   * Store values in an array on the Java heap.
+   *
+   * @return the store
+   */
+  public static IntStore onHeap() {
+    return new HeapStore();
+  }
+
+  /**
+   * Store values in a direct buffer (outside of the Java heap).
+   *
+   * @return the store
+   */
+  public static IntStore direct() {
+    return new BufferStore(null);
+  }
+
+  /**
+   * Store values in a memory-mapped temporary file, which is deleted when
+   * the store is closed.
+   *
+   * @param dir the directory of the temporary file
+   * @return the store
+   * @throws IOException the file cannot be created
+   */
+  public static IntStore mapped(File dir) throws IOException {
+    return new BufferStore(File.createTempFile("codeview", ".ints", dir));
+  }
+
+  /**
+   * @return the number of values
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param idx the index of the value
+   * @return the value
+   */
+  public abstract int get(int idx);
+
+  /**
+   * @param value the value to add to the end
+   */
+  public abstract void add(int value);
+
+  /**
+   * Remove all values.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Release the memory (or the file) of the values, the store must not be
+   * used after that.
+   */
+  @Override
+  public void close() {
+    size = 0;
+  }
+
+  protected void checkIndex(int idx) {
+    if (idx < 0 || idx >= size) {
+      throw new IndexOutOfBoundsException("index " + idx + ", size " + size);
+    }
+  }
+
+  private static class HeapStore extends IntStore {
+
+    private int[] values = new int[INITIAL_CAPACITY];
+
+    @Override
+    public int get(int idx) {
+      checkIndex(idx);
+      return values[idx];
+    }
+
+    @Override
+    public void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      values = new int[0];
+    }
+  }
+
+  private static class BufferStore extends IntStore {
+
+    /**
+     * The temporary file, null for a direct buffer.
+     */
+    private final File file;
+    private RandomAccessFile raf;
+    private ByteBuffer buffer;
+
+    BufferStore(File file) {
+      this.file = file;
+      buffer = allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int get(int idx) {
+      checkIndex(idx);
+      return buffer.getInt(idx * 4);
+    }
+
+    @Override
+    public void add(int value) {
+      if (size * 4 == buffer.capacity()) {
+        ByteBuffer grown = allocate(size * 2);
+        if (file == null) {
+          // mapped file keeps the values, the direct buffer is copied
+          ByteBuffer values = buffer.duplicate();
+          values.clear();
+          grown.put(values);
+          grown.clear();
+        }
+        buffer = grown;
+      }
+      buffer.putInt(size++ * 4, value);
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      buffer = null;
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException e) {
+          // the file is deleted anyway
+        }
+        raf = null;
+      }
+      if (file != null) {
+        file.delete();
+      }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+      if (file == null) {
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder());
+      }
+      try {
+        if (raf == null) {
+          raf = new RandomAccessFile(file, "rw");
+        }
+        return raf.getChannel()
+            .map(FileChannel.MapMode.READ_WRITE, 0, capacity * 4L)
+            .order(ByteOrder.nativeOrder());
+      } catch (IOException e) {
+        throw new IllegalStateException("cannot map " + file, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,315 @@
+package io.github.kbiakov.codeview.highlight.payload;
+
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns;
+import io.github.kbiakov.codeview.highlight.parser.IntStore;
+import io.github.kbiakov.codeview.highlight.prettify.PrettifyParser;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-highlighted code: the content with its line starts & decoration runs
+ * (start position, style key), without colors. It's produced once (e.g. on
+ * a server) & shown with any color theme without classifying & lexing.
+ *
+ * <p>Binary format (version 1), numbers are big-endian or unsigned varints:
+ * <pre>
+ * int     magic "CVHP"
+ * byte    version
+ * UTF     language
+ * int     code length in bytes, then code in UTF-8
+ * varint  number of style keys, then UTF style keys
+ * varint  number of lines, then line starts as deltas (the first is 0)
+ * varint  number of runs, then (start delta, style key index) of each run
+ * </pre>
+ */
+public class CodePayload {
+
+  /**
+   * The version of the written format, payloads of newer versions are not
+   * read.
+   */
+  public static final int VERSION = 1;
+
+  private static final int MAGIC = 0x43564850;
+  private static final int CHUNK_LINES = 1000;
+  private static final int MAX_STYLE_KEYS = 1024;
+  private static final int MAX_CODE_BYTES = Integer.MAX_VALUE - 8;
+  private static final int READ_CHUNK = 64 * 1024;
+
+  private final String language;
+  private final String code;
+  private final int[] lineStarts;
+  private final DecorationRuns runs;
+
+  /**
+   * Constructor.
+   *
+   * @param language the language of the code
+   * @param code the code
+   * @param lineStarts the start positions of lines
+   * @param runs the decoration runs of the code
+   */
+  public CodePayload(String language, String code, int[] lineStarts, DecorationRuns runs) {
+    this.language = language;
+    this.code = code;
+    this.lineStarts = lineStarts;
+    this.runs = runs;
+  }
+
+  /**
+   * Highlight the code.
+   *
+   * @param language the language of the code
+   * @param code the code
+   * @param budget the lexing budget
+   * @return the payload
+   */
+  public static CodePayload create(String language, String code, LexerBudget budget) {
+    DecorationRuns runs = new PrettifyParser().parse(language, code, budget,
+        new DecorationRuns(IntStore.onHeap()), CHUNK_LINES);
+    return new CodePayload(language, code, lineStarts(code), runs);
+  }
+
+  /**
+   * Read the payload.
+   *
+   * @param bytes the payload in binary format
+   * @return the payload
+   * @throws IOException the payload is malformed or of a newer version
+   */
+  public static CodePayload fromBytes(byte[] bytes) throws IOException {
+    return read(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Read the payload, the stream is not closed.
+   *
+   * @param input the stream with the payload in binary format
+   * @return the payload
+   * @throws IOException the payload is malformed or of a newer version
+   */
+  public static CodePayload read(InputStream input) throws IOException {
+    try {
+      return readPayload(new DataInputStream(input));
+    } catch (RuntimeException e) {
+      throw new IOException("malformed payload", e);
+    }
+  }
+
+  private static CodePayload readPayload(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("not a code payload");
+    }
+    int version = in.readUnsignedByte();
+    if (version > VERSION) {
+      throw new IOException("unsupported payload version " + version);
+    }
+    String language = in.readUTF();
+    String code = new String(readBytes(in, in.readInt()), "UTF-8");
+
+    String[] styleKeys = new String[checkCount(readVarint(in), MAX_STYLE_KEYS)];
+    for (int i = 0; i < styleKeys.length; i++) {
+      styleKeys[i] = in.readUTF();
+    }
+
+    int[] lineStarts = new int[checkCount(readVarint(in), code.length() + 1)];
+    for (int i = 1; i < lineStarts.length; i++) {
+      lineStarts[i] = checkPosition(lineStarts[i - 1] + readVarint(in), code);
+      if (lineStarts[i] <= lineStarts[i - 1]) {
+        throw new IOException("malformed payload: line start " + lineStarts[i]);
+      }
+    }
+
+    DecorationRuns runs = new DecorationRuns(IntStore.onHeap());
+    int start = 0;
+    for (int i = 0, n = checkCount(readVarint(in), code.length() + 1); i < n; i++) {
+      start = checkPosition(start + readVarint(in), code);
+      int styleIdx = readVarint(in);
+      if (styleIdx < 0 || styleIdx >= styleKeys.length) {
+        throw new IOException("malformed payload: style key " + styleIdx);
+      }
+      runs.add(start, styleKeys[styleIdx]);
+    }
+    runs.setEnd(code.length());
+
+    return new CodePayload(language, code, lineStarts, runs);
+  }
+
+  /**
+   * @return the payload in binary format
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(code.length() + runs.size() * 2 + 64);
+    try {
+      write(out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Write the payload in binary format, the stream is not closed.
+   *
+   * @param output the stream
+   * @throws IOException the stream cannot be written
+   */
+  public void write(OutputStream output) throws IOException {
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeUTF(language);
+    byte[] codeBytes = code.getBytes("UTF-8");
+    out.writeInt(codeBytes.length);
+    out.write(codeBytes);
+
+    List<String> styleKeys = new ArrayList<String>();
+    Map<String, Integer> styleIdx = new HashMap<String, Integer>();
+    int[] runStyles = new int[runs.size()];
+    for (int i = 0; i < runStyles.length; i++) {
+      String key = runs.getStyleKey(i);
+      Integer idx = styleIdx.get(key);
+      if (idx == null) {
+        idx = styleKeys.size();
+        styleKeys.add(key);
+        styleIdx.put(key, idx);
+      }
+      runStyles[i] = idx;
+    }
+    writeVarint(out, styleKeys.size());
+    for (String key : styleKeys) {
+      out.writeUTF(key);
+    }
+
+    writeVarint(out, lineStarts.length);
+    for (int i = 1; i < lineStarts.length; i++) {
+      writeVarint(out, lineStarts[i] - lineStarts[i - 1]);
+    }
+
+    writeVarint(out, runStyles.length);
+    int start = 0;
+    for (int i = 0; i < runStyles.length; i++) {
+      writeVarint(out, runs.getStart(i) - start);
+      writeVarint(out, runStyles[i]);
+      start = runs.getStart(i);
+    }
+    out.flush();
+  }
+
+  public String getLanguage() {
+    return language;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public DecorationRuns getRuns() {
+    return runs;
+  }
+
+  /**
+   * @return the number of lines
+   */
+  public int getLineCount() {
+    return lineStarts.length;
+  }
+
+  /**
+   * @param line the line number
+   * @return the start position of the line
+   */
+  public int getLineStart(int line) {
+    return lineStarts[line];
+  }
+
+  /**
+   * @param line the line number
+   * @return the end position of the line (without the line break)
+   */
+  public int getLineEnd(int line) {
+    return line + 1 < lineStarts.length ? lineStarts[line + 1] - 1 : code.length();
+  }
+
+  private static int[] lineStarts(String code) {
+    int[] starts = new int[64];
+    int count = 1;
+    for (int idx = code.indexOf('\n'); idx != -1; idx = code.indexOf('\n', idx + 1)) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+      }
+      starts[count++] = idx + 1;
+    }
+    return Arrays.copyOf(starts, count);
+  }
+
+  /**
+   * Reads the bytes as they come, so a malformed length cannot allocate
+   * much more memory than the stream has.
+   */
+  private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+    if (length < 0 || length > MAX_CODE_BYTES) {
+      throw new IOException("malformed payload: code length " + length);
+    }
+    byte[] bytes = new byte[Math.min(length, READ_CHUNK)];
+    int count = 0;
+    while (count < length) {
+      if (count == bytes.length) {
+        bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * count));
+      }
+      in.readFully(bytes, count, bytes.length - count);
+      count = bytes.length;
+    }
+    return bytes;
+  }
+
+  private static int checkCount(int count, int max) throws IOException {
+    if (count < 0 || count > max) {
+      throw new IOException("malformed payload: count " + count);
+    }
+    return count;
+  }
+
+  private static int checkPosition(int pos, String code) throws IOException {
+    if (pos < 0 || pos > code.length()) {
+      throw new IOException("malformed payload: position " + pos);
+    }
+    return pos;
+  }
+
+  private static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      if (shift == 28 && b > 0x07) {
+        // doesn't fit into a non-negative int
+        break;
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed payload: varint");
+  }
+}
@@ -0,0 +1,193 @@
+package io.github.kbiakov.codeview.highlight.prettify;
+
+import io.github.kbiakov.codeview.highlight.prettify.parser.Job;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerCheckpoints;
+import io.github.kbiakov.codeview.highlight.prettify.parser.Prettify;
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns;
+import io.github.kbiakov.codeview.highlight.parser.ParseResult;
+import io.github.kbiakov.codeview.highlight.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The prettify parser for syntax highlight.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class PrettifyParser implements Parser {
+
+  /**
+   * The prettify parser.
+   */
+  protected Prettify prettify;
+
+  /**
+   * Constructor.
+   */
+  public PrettifyParser() {
+    prettify = new Prettify();
+  }
+
+  @Override
+  public List<ParseResult> parse(String fileExtension, String content) {
+    return parse(fileExtension, content, LexerBudget.UNLIMITED);
+  }
+
+  /**
+   * Parse the {@code content} within the lexing budget, content beyond the
+   * budget is returned as plain text.
+   * @param fileExtension the file extension of the content, null means not
+   * provided
+   * @param content the content
+   * @param budget the lexing budget
+   * @return the parsed result
+   */
+  public List<ParseResult> parse(String fileExtension, String content, LexerBudget budget) {
+    return parse(fileExtension, content, budget, null);
+  }
+
+  /**
+   * Parse the {@code content} within the lexing budget and record the lexer
+   * state at line starts, so any lines can be parsed again later by
+   * {@link #parse(String, String, LexerBudget, LexerCheckpoints, int, int)}.
+   * @param fileExtension the file extension of the content, null means not
+   * provided
+   * @param content the content
+   * @param budget the lexing budget
+   * @param checkpoints the checkpoints to record, may be null
+   * @return the parsed result
+   */
+  public List<ParseResult> parse(String fileExtension, String content, LexerBudget budget, LexerCheckpoints checkpoints) {
+    Job job = new Job(0, content);
+    prettify.langHandlerForExtension(fileExtension, content).decorate(job, budget, checkpoints);
+    return toParseResults(job.getDecorations(), content.length());
+  }
+
+  /**
+   * Parse the {@code content} within the lexing budget, lexing the parts of
+   * it concurrently on the executor. The result is the same as of
+   * {@link #parse(String, String, LexerBudget)}, short contents are parsed
+   * on the calling thread.
+   * @param fileExtension the file extension of the content, null means not
+   * provided
+   * @param content the content
+   * @param budget the lexing budget, shared by the parts
+   * @param executor the executor to lex the parts on
+   * @param parallelism the number of parts to split the content into
+   * @return the parsed result
+   * @throws InterruptedException interrupted while waiting for the parts
+   */
+  public List<ParseResult> parse(String fileExtension, String content, LexerBudget budget, ExecutorService executor, int parallelism) throws InterruptedException {
+    Job job = new Job(0, content);
+    prettify.langHandlerForExtension(fileExtension, content).decorate(job, budget, executor, parallelism);
+    return toParseResults(job.getDecorations(), content.length());
+  }
+
+  /**
+   * Parse only the lines [fromLine, toLine) of the {@code content}, lexing
+   * from the nearest recorded checkpoint instead of the start.
+   * @param fileExtension the file extension of the content, null means not
+   * provided
+   * @param content the content
+   * @param budget the lexing budget
+   * @param checkpoints the checkpoints recorded before
+   * @param fromLine the first line to parse
+   * @param toLine the line after the last line to parse
+   * @return the parsed result of the lines
+   */
+  public List<ParseResult> parse(String fileExtension, String content, LexerBudget budget, LexerCheckpoints checkpoints, int fromLine, int toLine) {
+    Job job = new Job(0, content);
+    prettify.langHandlerForExtension(fileExtension, content).decorate(job, budget, checkpoints, fromLine, toLine);
+    return toParseResults(job.getDecorations(), checkpoints.getLineStart(content, Math.max(fromLine, toLine)));
+  }
+
+  /**
+   * Parse the {@code content} into compact decoration runs, lexing it by
+   * chunks of lines one after another (from the checkpoints of the previous
+   * chunk), so only the decorations of one chunk are kept as objects at
+   * once. The runs are the same as of parsing the whole content.
+   * @param fileExtension the file extension of the content, null means not
+   * provided
+   * @param content the content
+   * @param budget the lexing budget, applied to each chunk
+   * @param runs the runs to add the decorations to
+   * @param chunkLines the number of lines lexed at once
+   * @return the runs
+   */
+  public DecorationRuns parse(String fileExtension, String content, LexerBudget budget, DecorationRuns runs, int chunkLines) {
+    if (chunkLines <= 0) {
+      throw new IllegalArgumentException("argument 'chunkLines' must be positive");
+    }
+    Prettify.CreateSimpleLexer lexer = prettify.langHandlerForExtension(fileExtension, content);
+    LexerCheckpoints checkpoints = new LexerCheckpoints();
+    for (int fromLine = 0; ; fromLine += chunkLines) {
+      int toLine = fromLine + chunkLines;
+      Job job = new Job(0, content);
+      lexer.decorate(job, budget, checkpoints, fromLine, toLine);
+      int to = checkpoints.getLineStart(content, toLine);
+      runs.addAll(job.getDecorations(), to);
+      if (to >= content.length()) {
+        break;
+      }
+    }
+    runs.setEnd(content.length());
+    return runs;
+  }
+
+  /**
+   * Parse the {@code content} into compact decoration runs, lexing it by
+   * parts of about {@code partLength} characters one after another, each
+   * part concurrently on the executor (see
+   * {@link #parse(String, String, LexerBudget, ExecutorService, int)}). So
+   * only the decorations of one part are kept as objects at once. The runs
+   * are the same as of parsing the whole content.
+   * @param fileExtension the file extension of the content, null means not
+   * provided
+   * @param content the content
+   * @param budget the lexing budget, shared by all the parts
+   * @param runs the runs to add the decorations to
+   * @param executor the executor to lex the parts on
+   * @param parallelism the number of chunks to split each part into
+   * @param partLength the number of characters lexed at once
+   * @return the runs
+   * @throws InterruptedException interrupted while waiting for the chunks
+   */
+  public DecorationRuns parse(String fileExtension, String content, LexerBudget budget, DecorationRuns runs, ExecutorService executor, int parallelism, int partLength) throws InterruptedException {
+    if (partLength <= 0) {
+      throw new IllegalArgumentException("argument 'partLength' must be positive");
+    }
+    Prettify.CreateSimpleLexer lexer = prettify.langHandlerForExtension(fileExtension, content);
+    LexerBudget shared = budget.shared();
+    int length = content.length();
+    int from = 0;
+    do {
+      Job job = new Job(0, content);
+      int stop = lexer.decorate(job, shared, executor, parallelism, from, Math.min(length, from + partLength));
+      if (stop == -1) {
+        // the rest is plain text
+        runs.addAll(job.getDecorations(), length);
+        break;
+      }
+      runs.addAll(job.getDecorations(), stop);
+      from = stop;
+    } while (from < length);
+    runs.setEnd(length);
+    return runs;
+  }
+
+  protected List<ParseResult> toParseResults(List<Object> decorations, int end) {
+    List<ParseResult> returnList = new ArrayList<ParseResult>();
+
+    // apply style according to the style list
+    for (int i = 0, iEnd = decorations.size(); i < iEnd; i += 2) {
+      int endPos = i + 2 < iEnd ? (Integer) decorations.get(i + 2) : end;
+      int startPos = (Integer) decorations.get(i);
+      returnList.add(new ParseResult(startPos, endPos - startPos, Arrays.asList(new String[]{(String) decorations.get(i + 1)})));
+    }
+
+    return returnList;
+  }
+}
@@ -0,0 +1,266 @@
+package io.github.kbiakov.codeview.highlight.prettify.parser;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits for lexing of pathological input (minified sources, giant blobs,
+ * unterminated strings), which may make the regular expressions backtrack
+ * for a very long time. When the budget is exceeded, the rest of the source
+ * is left as plain text.
+ */
+public class LexerBudget {
+
+  /**
+   * No limits at all.
+   */
+  public static final LexerBudget UNLIMITED = new LexerBudget(0, 0, 0);
+  /**
+   * Limits used by default.
+   */
+  public static final LexerBudget DEFAULT = new LexerBudget(3000, 0, 5000);
+
+  /**
+   * Max time of lexing in milliseconds, 0 means no limit.
+   */
+  protected final long timeoutMillis;
+  /**
+   * Max number of characters read by the regular expressions, 0 means no
+   * limit.
+   */
+  protected final long maxSteps;
+  /**
+   * Lines longer than this are not lexed & shown as plain text, 0 means no
+   * limit.
+   */
+  protected final int maxLineLength;
+  /**
+   * Checked while lexing, null means lexing is not cancelled.
+   */
+  protected final Cancellation cancellation;
+
+  /**
+   * Constructor.
+   *
+   * @param timeoutMillis max time of lexing in milliseconds, 0 means no limit
+   * @param maxSteps max number of characters read by the regular expressions,
+   * 0 means no limit
+   * @param maxLineLength max length of line to be lexed, 0 means no limit
+   */
+  public LexerBudget(long timeoutMillis, long maxSteps, int maxLineLength) {
+    this(timeoutMillis, maxSteps, maxLineLength, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param timeoutMillis max time of lexing in milliseconds, 0 means no limit
+   * @param maxSteps max number of characters read by the regular expressions,
+   * 0 means no limit
+   * @param maxLineLength max length of line to be lexed, 0 means no limit
+   * @param cancellation checked while lexing, null means no cancellation
+   */
+  public LexerBudget(long timeoutMillis, long maxSteps, int maxLineLength, Cancellation cancellation) {
+    if (timeoutMillis < 0 || maxSteps < 0 || maxLineLength < 0) {
+      throw new IllegalArgumentException("budget limits cannot be negative");
+    }
+    this.timeoutMillis = timeoutMillis;
+    this.maxSteps = maxSteps;
+    this.maxLineLength = maxLineLength;
+    this.cancellation = cancellation;
+  }
+
+  /**
+   * The same budget, lexing with which is stopped when it's cancelled (the
+   * rest of the source is left as plain text).
+   *
+   * @param cancellation checked while lexing
+   * @return the budget
+   */
+  public LexerBudget cancelledBy(Cancellation cancellation) {
+    return new LexerBudget(timeoutMillis, maxSteps, maxLineLength, cancellation);
+  }
+
+  /**
+   * The same budget for all the sources guarded by it (e.g. the parts of a
+   * source lexed concurrently): the steps are counted together and the time
+   * is counted from now, so the parts get no more than the whole source.
+   *
+   * @return the shared budget
+   */
+  public LexerBudget shared() {
+    if (timeoutMillis == 0 && maxSteps == 0) {
+      return this;
+    }
+    return new SharedBudget(this);
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public long getMaxSteps() {
+    return maxSteps;
+  }
+
+  public int getMaxLineLength() {
+    return maxLineLength;
+  }
+
+  /**
+   * Check whether the line is too long to be lexed.
+   *
+   * @param lineLength the length of the line
+   * @return true if the line should be left as plain text
+   */
+  public boolean isTooLong(int lineLength) {
+    return maxLineLength != 0 && lineLength > maxLineLength;
+  }
+
+  /**
+   * Start counting the budget for the source.
+   *
+   * @param source the source code
+   * @return the source which throws {@link BudgetExceededException} when
+   * read beyond the budget
+   */
+  public CharSequence guard(CharSequence source) {
+    if (timeoutMillis == 0 && maxSteps == 0 && cancellation == null) {
+      return source;
+    }
+    return new BudgetedCharSequence(source, this);
+  }
+
+  /**
+   * Cancellation of lexing, e.g. when the highlighted content is replaced.
+   */
+  public interface Cancellation {
+
+    /**
+     * @return true if lexing should be stopped
+     */
+    boolean isCancelled();
+  }
+
+  /**
+   * Thrown when the lexing budget is exceeded.
+   */
+  public static class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BudgetExceededException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Budget of several sources, see {@link #shared()}.
+   */
+  protected static class SharedBudget extends LexerBudget {
+
+    private final long deadline;
+    private final AtomicLong steps;
+
+    protected SharedBudget(LexerBudget budget) {
+      this(budget, budget.cancellation, deadline(budget), new AtomicLong());
+    }
+
+    private SharedBudget(LexerBudget budget, Cancellation cancellation, long deadline, AtomicLong steps) {
+      super(budget.timeoutMillis, budget.maxSteps, budget.maxLineLength, cancellation);
+      this.deadline = deadline;
+      this.steps = steps;
+    }
+
+    @Override
+    public LexerBudget cancelledBy(Cancellation cancellation) {
+      return new SharedBudget(this, cancellation, deadline, steps);
+    }
+
+    @Override
+    public LexerBudget shared() {
+      return this;
+    }
+
+    @Override
+    public CharSequence guard(CharSequence source) {
+      return new BudgetedCharSequence(source, this, deadline, steps);
+    }
+  }
+
+  private static long deadline(LexerBudget budget) {
+    return budget.timeoutMillis != 0 ? System.nanoTime() + budget.timeoutMillis * 1000000L : 0;
+  }
+
+  /**
+   * Character sequence which counts reads of the regular expressions and
+   * checks the deadline periodically.
+   */
+  protected static class BudgetedCharSequence implements CharSequence {
+
+    /**
+     * Steps between the deadline checks, System.nanoTime() is not free.
+     */
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final CharSequence source;
+    private final long maxSteps;
+    private final long deadline;
+    private final Cancellation cancellation;
+    private final AtomicLong sharedSteps;
+    private long steps;
+    private int untilCheck = CHECK_INTERVAL;
+
+    protected BudgetedCharSequence(CharSequence source, LexerBudget budget) {
+      this(source, budget, deadline(budget), null);
+    }
+
+    /**
+     * @param sharedSteps the steps counted together with other sources, null
+     * means the steps of this source only
+     */
+    protected BudgetedCharSequence(CharSequence source, LexerBudget budget, long deadline, AtomicLong sharedSteps) {
+      this.source = source;
+      this.maxSteps = budget.maxSteps;
+      this.deadline = deadline;
+      this.cancellation = budget.cancellation;
+      this.sharedSteps = sharedSteps;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (--untilCheck == 0) {
+        check();
+      }
+      return source.charAt(index);
+    }
+
+    private void check() {
+      untilCheck = CHECK_INTERVAL;
+      steps = sharedSteps != null ? sharedSteps.addAndGet(CHECK_INTERVAL) : steps + CHECK_INTERVAL;
+      if (maxSteps != 0 && steps > maxSteps) {
+        throw new BudgetExceededException("lexing steps exceeded " + maxSteps);
+      }
+      if (deadline != 0 && System.nanoTime() - deadline > 0) {
+        throw new BudgetExceededException("lexing time exceeded");
+      }
+      if (cancellation != null && cancellation.isCancelled()) {
+        throw new BudgetExceededException("lexing cancelled");
+      }
+    }
+
+    @Override
+    public int length() {
+      return source.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return source.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return source.toString();
+    }
+  }
+}
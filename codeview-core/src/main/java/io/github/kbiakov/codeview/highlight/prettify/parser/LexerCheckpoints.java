@@ -0,0 +1,227 @@
+package io.github.kbiakov.codeview.highlight.prettify.parser;
+
+import java.util.Arrays;
+
+/**
+ * Snapshots of the lexer state at line starts, recorded every
+ * {@link #getInterval()} lines while the source is lexed.
+ *
+ * The lexer has no state besides its position: block comments, multi-line
+ * strings & embedded languages are single top-level tokens. So the state
+ * at a line start is the start of the top-level token which contains it (or
+ * the line start itself when a token starts there). Lexing restarted from
+ * that offset produces exactly the same decorations, which allows to
+ * highlight any range of lines without lexing the lines before it.
+ */
+public class LexerCheckpoints implements Prettify.TokenObserver {
+
+  /**
+   * Default number of lines between checkpoints.
+   */
+  public static final int DEFAULT_INTERVAL = 100;
+
+  /**
+   * Number of lines between checkpoints.
+   */
+  protected final int interval;
+  /**
+   * Start of each recorded line, line of checkpoint i is i * interval.
+   */
+  protected int[] lineStarts = new int[16];
+  /**
+   * Offset to restart lexing from for each recorded line.
+   */
+  protected int[] restartOffsets = new int[16];
+  /**
+   * Number of recorded checkpoints.
+   */
+  protected int size;
+
+  // recording cursor
+  private int recordIdx;
+  private int nextLine;
+  private int nextLineStart;
+  private int lastTokenStart;
+  private int prevTokenStart;
+  // start of the tokens which may change with more text at the end
+  private int unstableStart;
+
+  /**
+   * Constructor.
+   */
+  public LexerCheckpoints() {
+    this(DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param interval number of lines between checkpoints
+   */
+  public LexerCheckpoints(int interval) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("argument 'interval' should be positive");
+    }
+    this.interval = interval;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Get the number of recorded checkpoints.
+   *
+   * @return the number of checkpoints
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Drop all the checkpoints, e.g. when the source is changed.
+   */
+  public void clear() {
+    size = 0;
+    unstableStart = 0;
+  }
+
+  /**
+   * Get the last line which has a checkpoint, so lexing can be restarted at
+   * any line up to it without lexing anything before it.
+   *
+   * @return the line number, -1 if nothing is recorded
+   */
+  public int getLastLine() {
+    return size != 0 ? (size - 1) * interval : -1;
+  }
+
+  /**
+   * Find the start of the line, scanning from the nearest recorded line.
+   *
+   * @param source the source code
+   * @param line the line number
+   * @return the start of the line, the length of source if there is no such
+   * line
+   */
+  public int getLineStart(CharSequence source, int line) {
+    if (line < 0) {
+      throw new IllegalArgumentException("argument 'line' cannot be negative");
+    }
+    int checkpoint = Math.min(line / interval, size - 1);
+    int lineStart = checkpoint >= 0 ? lineStarts[checkpoint] : 0;
+    for (int i = checkpoint >= 0 ? checkpoint * interval : 0; i < line; i++) {
+      lineStart = nextLineStart(source, lineStart);
+      if (lineStart == -1) {
+        return source.length();
+      }
+    }
+    return lineStart;
+  }
+
+  /**
+   * Find the nearest line at or before the given one where lexing can start
+   * as from the start of the source: the line starts with a top-level token
+   * or inside of whitespace (which ends at the same place wherever it
+   * starts). The text from its start can be lexed again with more text
+   * appended, e.g. to follow a live log.
+   *
+   * The last two tokens of the source may change with more text (e.g. an
+   * unclosed block comment, which ends before the final line break), so
+   * lines after their start are not taken. Lexing is expected to reach the
+   * end of the source, otherwise all the tokens are taken as such.
+   *
+   * @param source the source code
+   * @param line the line number
+   * @return the line number of a checkpoint, 0 if there is no such line
+   */
+  public int getRestartLine(CharSequence source, int line) {
+    for (int checkpoint = Math.min(line / interval, size - 1); checkpoint > 0; checkpoint--) {
+      int restartOffset = restartOffsets[checkpoint];
+      if (restartOffset <= unstableStart && isBlank(source, restartOffset, lineStarts[checkpoint])) {
+        return checkpoint * interval;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Prepare to lex from the nearest checkpoint before the line. Checkpoints
+   * after it are recorded again on the way, which gives the same values.
+   *
+   * @param source the source code
+   * @param line the line number
+   * @return the offset to restart lexing from
+   */
+  protected int restartAt(CharSequence source, int line) {
+    int checkpoint = Math.min(line / interval, size - 1);
+    unstableStart = 0;
+    if (checkpoint < 0) {
+      recordIdx = 0;
+      nextLine = 0;
+      nextLineStart = 0;
+      lastTokenStart = prevTokenStart = 0;
+      return 0;
+    }
+    recordIdx = checkpoint;
+    nextLine = checkpoint * interval;
+    nextLineStart = lineStarts[checkpoint];
+    lastTokenStart = prevTokenStart = restartOffsets[checkpoint];
+    return lastTokenStart;
+  }
+
+  /**
+   * Record the checkpoints of lines which start up to the top-level token,
+   * the end of the source records the lines inside of the last token.
+   *
+   * @param source the source code
+   * @param tokenStart the start of the top-level token
+   * @param decorationIdx unused
+   * @return true, lexing goes on
+   */
+  @Override
+  public boolean onToken(CharSequence source, int tokenStart, int decorationIdx) {
+    while (nextLineStart != -1 && nextLineStart <= tokenStart) {
+      // line starts either with the token or inside of the previous one
+      record(nextLineStart, nextLineStart == tokenStart ? tokenStart : lastTokenStart);
+      nextLineStart = nextLineStart(source, nextLineStart);
+    }
+    if (tokenStart == source.length()) {
+      unstableStart = prevTokenStart;
+    }
+    prevTokenStart = lastTokenStart;
+    lastTokenStart = tokenStart;
+    return true;
+  }
+
+  private void record(int lineStart, int restartOffset) {
+    if (nextLine++ % interval != 0) {
+      return;
+    }
+    if (recordIdx == lineStarts.length) {
+      lineStarts = Arrays.copyOf(lineStarts, recordIdx * 2);
+      restartOffsets = Arrays.copyOf(restartOffsets, recordIdx * 2);
+    }
+    lineStarts[recordIdx] = lineStart;
+    restartOffsets[recordIdx] = restartOffset;
+    size = Math.max(size, ++recordIdx);
+  }
+
+  private static boolean isBlank(CharSequence source, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(source.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int nextLineStart(CharSequence source, int lineStart) {
+    for (int i = lineStart, iEnd = source.length(); i < iEnd; i++) {
+      if (source.charAt(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+}
@@ -20,8 +20,13 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import io.github.kbiakov.codeview.highlight.prettify.lang.LangAppollo;
 import io.github.kbiakov.codeview.highlight.prettify.lang.LangBasic;
@@ -198,6 +203,19 @@ public class Prettify {
    * embedding of line numbers within code listings.
    */
   public static final String PR_NOCODE = "nocode";
+  /**
+   * Detects the sources to be treated as markup by default.
+   */
+  private static final Pattern MARKUP_START = Pattern.compile("^\\s*<");
+  /**
+   * Tokens up to this length have their styles cached while lexing.
+   */
+  private static final int MAX_CACHED_TOKEN_LENGTH = 64;
+  /**
+   * Sources are not split into chunks shorter than this to be lexed
+   * concurrently.
+   */
+  private static final int MIN_CHUNK_LENGTH = 8192;
   /**
    * A set of tokens that can precede a regular expression literal in
    * javascript
@@ -409,11 +427,157 @@ public class Prettify {
     if (sourceCode == null) {
       throw new NullPointerException("argument 'sourceCode' cannot be null");
     }
-    Job job = new Job();
-    job.setSourceCode(sourceCode);
-    job.setBasePos(basePos);
-    langHandler.decorate(job);
-    out.addAll(job.getDecorations());
+    appendDecorations(basePos, sourceCode, 0, sourceCode.length(), langHandler, out);
+  }
+
+  /**
+   * Apply the given language handler to the part [start, end) of source and
+   * add the resulting decorations to out. The part is lexed in place, without
+   * copying it out of source or the decorations out of a separate job.
+   * @param basePos the index of source[start] within the chunk of source
+   *    whose decorations are already present on out.
+   */
+  protected static void appendDecorations(int basePos, CharSequence source, int start, int end, CreateSimpleLexer langHandler, List<Object> out) {
+    if (source == null) {
+      throw new NullPointerException("argument 'source' cannot be null");
+    }
+    langHandler.decorate(source, start, end, basePos, out);
+  }
+
+  /**
+   * Observes the top-level tokens while lexing.
+   */
+  protected interface TokenObserver {
+
+    /**
+     * Called before the token is decorated.
+     * @param source the source code
+     * @param tokenStart the start of the token, the length of source at the end
+     * @param decorationIdx the index of the first decoration of the token
+     * @return false to stop lexing before the token
+     */
+    boolean onToken(CharSequence source, int tokenStart, int decorationIdx);
+  }
+
+  /**
+   * The part of a source lexed concurrently with the other parts, records
+   * the starts of its top-level tokens.
+   */
+  private static class Chunk implements TokenObserver {
+
+    protected final int start;
+    protected final int end;
+    protected int stop;
+    protected final List<Object> decorations = new ArrayList<Object>();
+    protected int[] tokenStarts = new int[64];
+    protected int[] decorationIdxs = new int[64];
+    protected int size;
+    /**
+     * The stack of the thread the chunk was lexed on was exceeded.
+     */
+    protected boolean overflowed;
+
+    protected Chunk(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    /**
+     * Forgets the tokens, to lex the chunk again.
+     */
+    protected void reset() {
+      decorations.clear();
+      size = 0;
+      stop = 0;
+      overflowed = false;
+    }
+
+    @Override
+    public boolean onToken(CharSequence source, int tokenStart, int decorationIdx) {
+      if (tokenStart < end) {
+        if (size == tokenStarts.length) {
+          tokenStarts = Arrays.copyOf(tokenStarts, size * 2);
+          decorationIdxs = Arrays.copyOf(decorationIdxs, size * 2);
+        }
+        tokenStarts[size] = tokenStart;
+        decorationIdxs[size] = decorationIdx;
+        size++;
+      }
+      return true;
+    }
+
+    /**
+     * The chunk has the right tokens from tokenStart on, when lexed within
+     * the budget and a token starts there.
+     */
+    protected boolean isMeetable(int tokenStart) {
+      return stop != -1 && Arrays.binarySearch(tokenStarts, 0, size, tokenStart) >= 0;
+    }
+
+    /**
+     * Appends the decorations from the token starting at tokenStart, or all
+     * of them when the chunk has no such token.
+     */
+    protected void appendFrom(int tokenStart, List<Object> out) {
+      int i = Arrays.binarySearch(tokenStarts, 0, size, tokenStart);
+      out.addAll(decorations.subList(i >= 0 ? decorationIdxs[i] : 0, decorations.size()));
+    }
+
+    /**
+     * @return the index of the last chunk starting at or before pos
+     */
+    protected static int indexOf(Chunk[] chunks, int pos) {
+      int i = chunks.length - 1;
+      while (i > 0 && chunks[i].start > pos) {
+        i--;
+      }
+      return i;
+    }
+
+    /**
+     * Stops lexing at the first token some of the chunks has too.
+     */
+    protected static class Meeting implements TokenObserver {
+
+      protected final Chunk[] chunks;
+      protected int chunkIdx;
+
+      protected Meeting(Chunk[] chunks, int chunkIdx) {
+        this.chunks = chunks;
+        this.chunkIdx = chunkIdx;
+      }
+
+      @Override
+      public boolean onToken(CharSequence source, int tokenStart, int decorationIdx) {
+        int i = indexOf(chunks, tokenStart);
+        if (i < chunkIdx || !chunks[i].isMeetable(tokenStart)) {
+          return true;
+        }
+        chunkIdx = i;
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Splits [start, end) of source into about the given number of parts at
+   * line starts.
+   * @return the starts of the parts
+   */
+  private static int[] splitLines(String source, int start, int end, int parts, int minLength) {
+    int partLength = Math.max(minLength, (end - start) / Math.max(parts, 1));
+    int[] starts = new int[]{start};
+    int pos = start + partLength;
+    while (pos < end) {
+      int lineStart = source.indexOf('\n', pos) + 1;
+      if (lineStart == 0 || lineStart >= end) {
+        break;
+      }
+      starts = Arrays.copyOf(starts, starts.length + 1);
+      starts[starts.length - 1] = lineStart;
+      pos = lineStart + partLength;
+    }
+    return starts;
   }
 
   public class CreateSimpleLexer {
@@ -506,92 +670,463 @@ public class Prettify {
      * }</pre>
      */
     public void decorate(Job job) {
+      String sourceCode = job.getSourceCode();
+      List<Object> decorations = new ArrayList<Object>();
+      decorate(sourceCode, 0, sourceCode.length(), job.getBasePos(), decorations);
+      job.decorations = decorations;
+    }
+
+    /**
+     * Lexes job.sourceCode like {@link #decorate(Job)} within the budget.
+     * Lines longer than allowed are left as plain text, and when the budget
+     * is exceeded the rest of the source is left as plain text too.
+     *
+     * @param job see {@link #decorate(Job)}
+     * @param budget the lexing budget
+     */
+    public void decorate(Job job, LexerBudget budget) {
+      decorate(job, budget, null);
+    }
+
+    /**
+     * Lexes job.sourceCode like {@link #decorate(Job, LexerBudget)} and
+     * records the lexer state at line starts.
+     *
+     * @param job see {@link #decorate(Job)}
+     * @param budget the lexing budget
+     * @param checkpoints the checkpoints to record, may be null
+     */
+    public void decorate(Job job, LexerBudget budget, LexerCheckpoints checkpoints) {
+      String sourceCode = job.getSourceCode();
+      int length = sourceCode.length();
+      if (checkpoints != null) {
+        checkpoints.clear();
+        checkpoints.restartAt(sourceCode, 0);
+      }
+      List<Object> decorations = new ArrayList<Object>();
+      decorateLines(sourceCode, 0, length, job.getBasePos(), budget, checkpoints, decorations);
+      job.decorations = Util.removeDuplicates(decorations, length);
+    }
+
+    /**
+     * Lexes only the lines [fromLine, toLine) of job.sourceCode, restarting
+     * from the nearest checkpoint before fromLine, so the lines before it are
+     * not lexed again. Checkpoints are recorded on the way.
+     * The decorations are the same as produced by lexing the whole source,
+     * limited to the lines.
+     *
+     * @param job see {@link #decorate(Job)}
+     * @param budget the lexing budget
+     * @param checkpoints the checkpoints recorded before
+     * @param fromLine the first line to lex
+     * @param toLine the line after the last line to lex
+     */
+    public void decorate(Job job, LexerBudget budget, LexerCheckpoints checkpoints, int fromLine, int toLine) {
+      if (checkpoints == null) {
+        throw new NullPointerException("argument 'checkpoints' cannot be null");
+      }
       String sourceCode = job.getSourceCode();
       int basePos = job.getBasePos();
+      int from = checkpoints.getLineStart(sourceCode, fromLine);
+      int to = checkpoints.getLineStart(sourceCode, Math.max(fromLine, toLine));
+      int restart = checkpoints.restartAt(sourceCode, fromLine);
+
+      List<Object> decorations = new ArrayList<Object>();
+      decorateLines(sourceCode, restart, to, basePos, budget, checkpoints, decorations);
+      Util.removeDuplicates(decorations, sourceCode.length());
+
+      // leave only the decorations of the lines
+      int firstIdx = 0;
+      int endIdx = decorations.size();
+      for (int i = 0; i < endIdx; i += 2) {
+        int pos = (Integer) decorations.get(i);
+        if (pos <= basePos + from) {
+          firstIdx = i;
+        } else if (pos >= basePos + to) {
+          endIdx = i;
+          break;
+        }
+      }
+      List<Object> lineDecorations = new ArrayList<Object>(decorations.subList(firstIdx, endIdx));
+      if (!lineDecorations.isEmpty()) {
+        lineDecorations.set(0, basePos + from);
+      }
+      job.decorations = lineDecorations;
+    }
+
+    /**
+     * Lexes job.sourceCode like {@link #decorate(Job, LexerBudget)}, split
+     * into chunks at line starts which are lexed concurrently.
+     *
+     * A chunk may start inside of a multi-line token, so its tokens are
+     * right only after a token start it has in common with the previous
+     * chunk, since lexing from the same token start gives the same tokens.
+     * Chunks are stitched at such token starts, when there is none the
+     * previous chunk is lexed on until it meets one of the next chunks. So
+     * the decorations are the same as produced by sequential lexing. The
+     * budget is shared by the chunks (see {@link LexerBudget#shared()}), so
+     * it limits lexing of the whole source. When it's exceeded, the rest of
+     * the source is plain text from the chunk it's exceeded in, like after
+     * sequential lexing: the decorations before are the same as without
+     * budget, only the point where it's exceeded may differ.
+     *
+     * Huge tokens may exceed the stack of the executor threads, which is
+     * not the stack of the calling thread, so a chunk which exceeded it is
+     * lexed again on the calling thread. The decorations are the same as
+     * produced by sequential lexing on the calling thread then.
+     *
+     * @param job see {@link #decorate(Job)}
+     * @param budget the lexing budget
+     * @param executor the executor to lex the chunks on
+     * @param parallelism the number of chunks to split the source into
+     * @throws InterruptedException interrupted while waiting for the chunks
+     */
+    public void decorate(Job job, LexerBudget budget, ExecutorService executor, int parallelism) throws InterruptedException {
+      String sourceCode = job.getSourceCode();
+      int length = sourceCode.length();
+      List<Object> decorations = new ArrayList<Object>();
+      decorateParallel(sourceCode, 0, length, job.getBasePos(), budget.shared(), executor, parallelism, decorations);
+      job.decorations = Util.removeDuplicates(decorations, length);
+    }
+
+    /**
+     * Lexes the part of job.sourceCode from {@code from} until the first
+     * top-level token at or after {@code to} like
+     * {@link #decorate(Job, LexerBudget, ExecutorService, int)}, so a large
+     * source can be lexed by parts one after another, each part by chunks
+     * concurrently. The next part starts where the previous one stopped.
+     * The decorations of all the parts are the same as produced by
+     * sequential lexing of the whole source.
+     *
+     * @param job see {@link #decorate(Job)}
+     * @param budget the lexing budget, it should be shared (see
+     *    {@link LexerBudget#shared()}) to limit lexing of all the parts
+     * @param executor the executor to lex the chunks on
+     * @param parallelism the number of chunks to split the part into
+     * @param from 0 or the value returned for the previous part
+     * @param to the end of the part
+     * @return the start of the first not lexed top-level token, the length
+     *    of source when all is lexed or -1 when the budget is exceeded
+     * @throws InterruptedException interrupted while waiting for the chunks
+     */
+    public int decorate(Job job, LexerBudget budget, ExecutorService executor, int parallelism, int from, int to) throws InterruptedException {
+      String sourceCode = job.getSourceCode();
+      List<Object> decorations = new ArrayList<Object>();
+      int stop = decorateParallel(sourceCode, from, to, job.getBasePos(), budget.shared(), executor, parallelism, decorations);
+      job.decorations = Util.removeDuplicates(decorations, sourceCode.length());
+      return stop;
+    }
+
+    /**
+     * Lexes [from, to) of source by chunks concurrently & stitches them,
+     * see {@link #decorate(Job, LexerBudget, ExecutorService, int)}.
+     *
+     * @return the start of the first not lexed top-level token, the length
+     *    of source when all is lexed or -1 when the budget is exceeded
+     */
+    private int decorateParallel(final String sourceCode, int from, int to, final int basePos, final LexerBudget budget, ExecutorService executor, int parallelism, List<Object> decorations) throws InterruptedException {
+      int[] chunkStarts = splitLines(sourceCode, from, to, parallelism, MIN_CHUNK_LENGTH);
+      if (chunkStarts.length < 2) {
+        return decorateLines(sourceCode, from, to, basePos, budget, null, decorations);
+      }
+
+      final Chunk[] chunks = new Chunk[chunkStarts.length];
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < chunks.length; i++) {
+        final Chunk chunk = new Chunk(chunkStarts[i], i + 1 < chunkStarts.length ? chunkStarts[i + 1] : to);
+        chunks[i] = chunk;
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            try {
+              chunk.stop = decorateLines(sourceCode, chunk.start, chunk.end, basePos, budget, chunk, chunk.decorations, true);
+            } catch (StackOverflowError err) {
+              chunk.overflowed = true;
+            }
+            return null;
+          }
+        });
+      }
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw (Error) cause;
+        }
+      }
+      for (Chunk chunk : chunks) {
+        if (chunk.overflowed) {
+          LOG.log(Level.FINE, "lexing stack of executor exceeded, chunk at {0} is lexed again", chunk.start);
+          chunk.reset();
+          chunk.stop = decorateLines(sourceCode, chunk.start, chunk.end, basePos, budget, chunk, chunk.decorations);
+        }
+      }
+
+      // stitch the chunks together
+      decorations.add(basePos + from);
+      decorations.add(PR_PLAIN);
+      int chunkIdx = 0;
+      int stop;
+      while (true) {
+        Chunk chunk = chunks[chunkIdx];
+        chunk.appendFrom(from, decorations);
+        stop = chunk.stop;
+        if (stop == -1 || stop >= to) {
+          break;
+        }
+        int nextIdx = Chunk.indexOf(chunks, stop);
+        if (nextIdx > chunkIdx && chunks[nextIdx].isMeetable(stop)) {
+          chunkIdx = nextIdx;
+          from = stop;
+          continue;
+        }
+        // the chunks have not met yet, lex on until one of the next chunks is met
+        Chunk.Meeting meeting = new Chunk.Meeting(chunks, chunkIdx + 1);
+        stop = decorateLines(sourceCode, stop, to, basePos, budget, meeting, decorations);
+        if (stop == -1 || stop >= to) {
+          break;
+        }
+        chunkIdx = meeting.chunkIdx;
+        from = stop;
+      }
+      return stop;
+    }
+
+    /**
+     * Lexes source from the start until the first top-level token at or
+     * after stopAt. Too long lines split the source into separately lexed
+     * segments, top-level tokens are matched with transparent bounds so that
+     * lexing restarted inside of a segment sees the same context.
+     *
+     * @return the start of the first not lexed top-level token, the length
+     *    of source when all is lexed or -1 when the budget is exceeded
+     */
+    private int decorateLines(String sourceCode, int start, int stopAt, int basePos, LexerBudget budget, TokenObserver observer, List<Object> out) {
+      return decorateLines(sourceCode, start, stopAt, basePos, budget, observer, out, false);
+    }
+
+    /**
+     * @param throwOverflow throw StackOverflowError instead of leaving the
+     *    rest as plain text
+     * @see #decorateLines(String, int, int, int, LexerBudget, TokenObserver, List)
+     */
+    private int decorateLines(String sourceCode, int start, int stopAt, int basePos, LexerBudget budget, TokenObserver observer, List<Object> out, boolean throwOverflow) {
+      int length = sourceCode.length();
+      CharSequence source = budget.guard(sourceCode);
+
+      try {
+        int segmentStart = start;
+        int lineStart = budget.getMaxLineLength() != 0 ? start : length;
+        while (lineStart < length) {
+          int lineEnd = sourceCode.indexOf('\n', lineStart);
+          if (lineEnd == -1) {
+            lineEnd = length;
+          }
+          if (budget.isTooLong(lineEnd - lineStart)) {
+            if (segmentStart < lineStart) {
+              int stop = decorate(source, segmentStart, lineStart, basePos + segmentStart, out, true, stopAt, observer);
+              if (stop < lineStart) {
+                return stop;
+              }
+            }
+            if (observer != null && !observer.onToken(source, lineStart, out.size())) {
+              return lineStart;
+            }
+            if (lineStart >= stopAt) {
+              return lineStart;
+            }
+            out.add(basePos + lineStart);
+            out.add(PR_PLAIN);
+            segmentStart = Math.min(lineEnd + 1, length);
+          }
+          lineStart = lineEnd + 1;
+        }
+        if (segmentStart < length || out.isEmpty()) {
+          int stop = decorate(source, segmentStart, length, basePos + segmentStart, out, true, stopAt, observer);
+          if (stop < length) {
+            return stop;
+          }
+        }
+        if (observer != null) {
+          observer.onToken(source, length, out.size());
+        }
+        return length;
+      } catch (LexerBudget.BudgetExceededException ex) {
+        LOG.log(Level.FINE, "lexing budget exceeded", ex);
+        leaveRestPlain(basePos + start, out);
+      } catch (StackOverflowError err) {
+        if (throwOverflow) {
+          throw err;
+        }
+        // deep backtracking of the regular expressions on huge tokens
+        LOG.log(Level.FINE, "lexing stack exceeded", err);
+        leaveRestPlain(basePos + start, out);
+      }
+      return -1;
+    }
+
+    /**
+     * The last decoration may be incomplete when lexing is interrupted, so it
+     * is left as plain text with everything after it.
+     */
+    private void leaveRestPlain(int basePos, List<Object> decorations) {
+      int size = decorations.size();
+      if (size == 0) {
+        decorations.add(basePos);
+        decorations.add(PR_PLAIN);
+      } else {
+        decorations.set(size - 1, PR_PLAIN);
+      }
+    }
+
+    /**
+     * Lexes the part [start, end) of source and appends the style classes
+     * preceded by the position at which they start to out. Embedded sources
+     * are lexed as parts of the same source and append to the same list.
+     *
+     * @param source the source code
+     * @param start the start of the part to lex
+     * @param end the end of the part to lex
+     * @param basePos position of source[start] in the larger chunk of
+     *    source code
+     * @param out the decorations to append to
+     */
+    protected void decorate(CharSequence source, int start, int end, int basePos, List<Object> out) {
+      decorate(source, start, end, basePos, out, false, end, null);
+    }
+
+    /**
+     * See {@link #decorate(CharSequence, int, int, int, List)}.
+     *
+     * @param isTopLevel match the tokens with transparent & non-anchoring
+     *    bounds, as part of the whole source, and leave the decorations to be
+     *    treated by the caller
+     * @param stopAt stop at the first token starting at or after it
+     * @param observer the observer of the tokens, may be null
+     * @return the start of the first not lexed token, end when all is lexed
+     */
+    private int decorate(CharSequence source, int start, int end, int basePos, List<Object> out, boolean isTopLevel, int stopAt, TokenObserver observer) {
       /** Even entries are positions in source in ascending order.  Odd enties
        * are style markers (e.g., PR_COMMENT) that run from that position until
        * the end.
        * @type {Array.<number|string>}
        */
-      List<Object> decorations = new ArrayList<Object>(Arrays.asList(new Object[]{basePos, PR_PLAIN}));
-      int pos = 0;  // index into sourceCode
-      String[] tokens = Util.match(tokenizer, sourceCode, true);
+      int outStart = out.size();
+      out.add(basePos);
+      out.add(PR_PLAIN);
+      Matcher tokens = tokenizer.matcher(source).region(start, end);
+      if (isTopLevel) {
+        tokens.useTransparentBounds(true).useAnchoringBounds(false);
+      }
+      Matcher match = null;
       Map<String, String> styleCache = new HashMap<String, String>();
 
-      for (int ti = 0, nTokens = tokens.length; ti < nTokens; ++ti) {
-        String token = tokens[ti];
-        String style = styleCache.get(token);
-        String[] match = null;
+      while (tokens.find()) {
+        int tokenStart = tokens.start();
+        int tokenEnd = tokens.end();
+        if (observer != null && !observer.onToken(source, tokenStart, out.size())) {
+          return tokenStart;
+        }
+        if (tokenStart >= stopAt) {
+          return tokenStart;
+        }
+        // long tokens are not worth copying out just to be cached
+        String token = tokenEnd - tokenStart <= MAX_CACHED_TOKEN_LENGTH
+                ? source.subSequence(tokenStart, tokenEnd).toString()
+                : null;
+        String style = token != null ? styleCache.get(token) : null;
+        boolean isMatched = false;
 
         boolean isEmbedded;
         if (style != null) {
           isEmbedded = false;
         } else {
-          List<Object> patternParts = shortcuts.get(token.charAt(0));
+          List<Object> patternParts = shortcuts.get(source.charAt(tokenStart));
           if (patternParts != null) {
-            match = Util.match((Pattern) patternParts.get(1), token, false);
+            match = matcherFor(match, (Pattern) patternParts.get(1), source, tokenStart, tokenEnd);
+            isMatched = match.find();
             style = (String) patternParts.get(0);
           } else {
             for (int i = 0; i < nPatterns; ++i) {
               patternParts = fallthroughStylePatterns.get(i);
-              match = Util.match((Pattern) patternParts.get(1), token, false);
-              if (match.length != 0) {
+              match = matcherFor(match, (Pattern) patternParts.get(1), source, tokenStart, tokenEnd);
+              isMatched = match.find();
+              if (isMatched) {
                 style = (String) patternParts.get(0);
                 break;
               }
             }
 
-            if (match.length == 0) {  // make sure that we make progress
+            if (!isMatched) {  // make sure that we make progress
               style = PR_PLAIN;
             }
           }
 
           isEmbedded = style != null && style.length() >= 5 && style.startsWith("lang-");
-          if (isEmbedded && !(match.length > 1 && match[1] != null)) {
+          if (isEmbedded && !(isMatched && match.groupCount() >= 1 && match.start(1) != -1)) {
             isEmbedded = false;
             style = PR_SOURCE;
           }
 
-          if (!isEmbedded) {
+          if (!isEmbedded && token != null) {
             styleCache.put(token, style);
           }
         }
 
-        int tokenStart = pos;
-        pos += token.length();
-
         if (!isEmbedded) {
-          decorations.add(basePos + tokenStart);
-          decorations.add(style);
+          out.add(basePos + tokenStart - start);
+          out.add(style);
         } else {  // Treat group 1 as an embedded block of source code.
-          String embeddedSource = match[1];
-          int embeddedSourceStart = token.indexOf(embeddedSource);
-          int embeddedSourceEnd = embeddedSourceStart + embeddedSource.length();
-          if (match.length > 2 && match[2] != null) {
+          int embeddedSourceLength = match.end(1) - match.start(1);
+          int embeddedSourceStart = Util.indexOf(source, tokenStart, match.start(1), match.end(1));
+          int embeddedSourceEnd = embeddedSourceStart + embeddedSourceLength;
+          if (match.groupCount() >= 2 && match.start(2) != -1) {
             // If embeddedSource can be blank, then it would match at the
             // beginning which would cause us to infinitely recurse on the
             // entire token, so we catch the right context in match[2].
-            embeddedSourceEnd = token.length() - match[2].length();
-            embeddedSourceStart = embeddedSourceEnd - embeddedSource.length();
+            embeddedSourceEnd = tokenEnd - (match.end(2) - match.start(2));
+            embeddedSourceStart = embeddedSourceEnd - embeddedSourceLength;
           }
           String lang = style.substring(5);
           // Decorate the left of the embedded source
-          appendDecorations(basePos + tokenStart,
-                  token.substring(0, embeddedSourceStart),
-                  this, decorations);
+          appendDecorations(basePos + tokenStart - start,
+                  source, tokenStart, embeddedSourceStart,
+                  this, out);
           // Decorate the embedded source
-          appendDecorations(basePos + tokenStart + embeddedSourceStart,
-                  embeddedSource,
-                  langHandlerForExtension(lang, embeddedSource),
-                  decorations);
+          appendDecorations(basePos + embeddedSourceStart - start,
+                  source, embeddedSourceStart, embeddedSourceEnd,
+                  langHandlerForExtension(lang, source, embeddedSourceStart, embeddedSourceEnd),
+                  out);
           // Decorate the right of the embedded section
-          appendDecorations(basePos + tokenStart + embeddedSourceEnd,
-                  token.substring(embeddedSourceEnd),
-                  this, decorations);
+          appendDecorations(basePos + embeddedSourceEnd - start,
+                  source, embeddedSourceEnd, tokenEnd,
+                  this, out);
         }
       }
 
-      job.setDecorations(Util.removeDuplicates(decorations, job.getSourceCode()));
+      if (!isTopLevel) {
+        // positions are in the larger chunk, so is the end of the part
+        Util.removeDuplicates(out.subList(outStart, out.size()), basePos + end - start);
+      }
+      return end;
+    }
+
+    /**
+     * Reuse the matcher for the given pattern over the part [start, end) of
+     * source. The bounds are opaque & anchoring, so the pattern sees the part
+     * exactly like a separate string.
+     */
+    private Matcher matcherFor(Matcher matcher, Pattern pattern, CharSequence source, int start, int end) {
+      if (matcher == null) {
+        matcher = pattern.matcher(source);
+      } else {
+        matcher.usePattern(pattern);
+      }
+      return matcher.region(start, end);
     }
   }
 
@@ -865,10 +1400,25 @@ public class Prettify {
    * @return the parser
    */
   public CreateSimpleLexer langHandlerForExtension(String extension, String source) {
+    if (source == null) {
+      throw new NullPointerException("argument 'source' cannot be null");
+    }
+    return langHandlerForExtension(extension, source, 0, source.length());
+  }
+
+  /**
+   * Get the parser for the extension specified.
+   * @param extension the file extension, if null, default parser will be returned
+   * @param source the source code
+   * @param start the start of the part of source to be parsed
+   * @param end the end of the part of source to be parsed
+   * @return the parser
+   */
+  public synchronized CreateSimpleLexer langHandlerForExtension(String extension, CharSequence source, int start, int end) {
     if (!(extension != null && langHandlerRegistry.get(extension) != null)) {
       // Treat it as markup if the first non whitespace character is a < and
       // the last non-whitespace character is a >.
-      extension = Util.test(Pattern.compile("^\\s*<"), source)
+      extension = MARKUP_START.matcher(source).region(start, end).find()
               ? "default-markup"
               : "default-code";
     }
@@ -15,8 +15,6 @@ package io.github.kbiakov.codeview.highlight.prettify.parser;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -138,6 +136,36 @@ public class Util {
     return pattern.matcher(string).find();
   }
 
+  /**
+   * Find the first occurrence of {@code source[start, end)} in 
+   * {@code source} starting from {@code fromIndex}. It is similar to 
+   * {@link String#indexOf(String, int)} for parts of one sequence, so no 
+   * substrings have to be created.
+   * 
+   * @param source the source
+   * @param fromIndex the index to start the search from
+   * @param start the start of the part to search for
+   * @param end the end of the part to search for
+   * 
+   * @return the index of the first occurrence, {@code start} at worst
+   */
+  public static int indexOf(CharSequence source, int fromIndex, int start, int end) {
+    if (source == null) {
+      throw new NullPointerException("argument 'source' cannot be null");
+    }
+    int length = end - start;
+    for (int i = fromIndex; i < start; i++) {
+      int j = 0;
+      while (j < length && source.charAt(i + j) == source.charAt(start + j)) {
+        j++;
+      }
+      if (j == length) {
+        return i;
+      }
+    }
+    return start;
+  }
+
   /**
    * Join the {@code strings} into one string.
    * 
@@ -220,43 +248,109 @@ public class Util {
    * a multiple of 2
    */
   public static List<Object> removeDuplicates(List<Object> decorations, String source) {
-    if (decorations == null) {
-      throw new NullPointerException("argument 'decorations' cannot be null");
-    }
     if (source == null) {
       throw new NullPointerException("argument 'source' cannot be null");
     }
-    if ((decorations.size() & 0x1) != 0) {
+    return removeDuplicates(decorations, source.length());
+  }
+
+  /**
+   * Remove identical adjacent tags from {@code decorations} in place.
+   * 
+   * Decorations produced by the lexer are already ordered by position (nested
+   * lexing appends in order), so this is done in a single pass: entries with
+   * the same position are collapsed (the last one wins), entries repeating the
+   * previous style are dropped and the trailing zero length tag is removed.
+   * Out of order input is sorted first.
+   * 
+   * @param decorations see {@link prettify.parser.Job#decorations}, modified
+   * in place
+   * @param sourceLength the length of the source code
+   * 
+   * @return the {@code decorations} after treatment
+   * 
+   * @throws IllegalArgumentException the size of {@code decoration} is not
+   * a multiple of 2
+   */
+  public static List<Object> removeDuplicates(List<Object> decorations, int sourceLength) {
+    if (decorations == null) {
+      throw new NullPointerException("argument 'decorations' cannot be null");
+    }
+    int size = decorations.size();
+    if ((size & 0x1) != 0) {
       throw new IllegalArgumentException("the size of argument 'decorations' should be a multiple of 2");
     }
 
-    List<Object> returnList = new ArrayList<Object>();
-
-    // use TreeMap to remove entrys with same pos
-    Map<Integer, Object> orderedMap = new TreeMap<Integer, Object>();
-    for (int i = 0, iEnd = decorations.size(); i < iEnd; i += 2) {
-      orderedMap.put((Integer) decorations.get(i), decorations.get(i + 1));
+    if (!isSortedByPosition(decorations)) {
+      // not expected from the lexer, but keep the result well defined
+      sortByPosition(decorations);
     }
 
-    // remove adjacent style
-    String previousStyle = null;
-    for (Integer pos : orderedMap.keySet()) {
-      String style = (String) orderedMap.get(pos);
-      if (previousStyle != null && previousStyle.equals(style)) {
-        continue;
+    int length = 0; // size of the already treated head of the list
+    for (int i = 0; i < size; i += 2) {
+      int pos = (Integer) decorations.get(i);
+      Object style = decorations.get(i + 1);
+
+      if (length != 0 && (Integer) decorations.get(length - 2) == pos) {
+        // same position, the last one wins
+        if (length >= 4 && decorations.get(length - 3).equals(style)) {
+          length -= 2;
+        } else {
+          decorations.set(length - 1, style);
+        }
+      } else if (length == 0 || !decorations.get(length - 1).equals(style)) {
+        decorations.set(length++, pos);
+        decorations.set(length++, style);
       }
-      returnList.add(pos);
-      returnList.add(style);
-      previousStyle = style;
     }
 
     // remove last zero length tag
-    int returnListSize = returnList.size();
-    if (returnListSize >= 4 && returnList.get(returnListSize - 2).equals(source.length())) {
-      returnList.remove(returnListSize - 2);
-      returnList.remove(returnListSize - 2);
+    if (length >= 4 && (Integer) decorations.get(length - 2) == sourceLength) {
+      length -= 2;
+    }
+
+    if (length != size) {
+      decorations.subList(length, size).clear();
+    }
+    return decorations;
+  }
+
+  /**
+   * Check whether the decoration pairs are ordered by position.
+   * 
+   * @param decorations see {@link prettify.parser.Job#decorations}
+   * 
+   * @return true if ordered
+   */
+  private static boolean isSortedByPosition(List<Object> decorations) {
+    int previousPos = Integer.MIN_VALUE;
+    for (int i = 0, iEnd = decorations.size(); i < iEnd; i += 2) {
+      int pos = (Integer) decorations.get(i);
+      if (pos < previousPos) {
+        return false;
+      }
+      previousPos = pos;
     }
+    return true;
+  }
 
-    return returnList;
+  /**
+   * Stable insertion sort of the decoration pairs by position. It is linear
+   * for the almost sorted lists produced by the lexer.
+   * 
+   * @param decorations see {@link prettify.parser.Job#decorations}
+   */
+  private static void sortByPosition(List<Object> decorations) {
+    for (int i = 2, iEnd = decorations.size(); i < iEnd; i += 2) {
+      Object pos = decorations.get(i);
+      Object style = decorations.get(i + 1);
+      int j = i;
+      for (; j >= 2 && (Integer) decorations.get(j - 2) > (Integer) pos; j -= 2) {
+        decorations.set(j, decorations.get(j - 2));
+        decorations.set(j + 1, decorations.get(j - 1));
+      }
+      decorations.set(j, pos);
+      decorations.set(j + 1, style);
+    }
   }
 }
@@ -0,0 +1,44 @@
+package io.github.kbiakov.codeview.highlight.render;
+
+import java.util.Map;
+
+/**
+ * Renders content for terminals with 24-bit color escape sequences. Color
+ * is reset at the end of each line, so lines can be printed or paged apart.
+ */
+public class AnsiRenderer extends Renderer {
+
+  private static final String RESET = "\u001B[39m";
+
+  /**
+   * Constructor.
+   *
+   * @param colors the colors (0xRRGGBB) by style keys
+   */
+  public AnsiRenderer(Map<String, Integer> colors) {
+    super(colors);
+  }
+
+  @Override
+  protected void appendRun(StringBuilder out, String content, int start, int end, Integer color) {
+    if (color == null) {
+      out.append(content, start, end);
+      return;
+    }
+    String colored = "\u001B[38;2;" + ((color >> 16) & 0xFF) + ';' + ((color >> 8) & 0xFF) + ';' + (color & 0xFF) + 'm';
+    int lineStart = start;
+    while (lineStart < end) {
+      int lineEnd = content.indexOf('\n', lineStart);
+      if (lineEnd == -1 || lineEnd > end) {
+        lineEnd = end;
+      }
+      if (lineEnd > lineStart) {
+        out.append(colored).append(content, lineStart, lineEnd).append(RESET);
+      }
+      if (lineEnd < end) {
+        out.append('\n');
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+}
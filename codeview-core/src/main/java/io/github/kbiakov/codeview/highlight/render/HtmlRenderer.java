@@ -0,0 +1,48 @@
+package io.github.kbiakov.codeview.highlight.render;
+
+import java.util.Map;
+
+/**
+ * Renders content as HTML, runs are wrapped in colored spans & line breaks
+ * are kept (so the result is to be shown in {@code <pre>}).
+ */
+public class HtmlRenderer extends Renderer {
+
+  /**
+   * Constructor.
+   *
+   * @param colors the colors (0xRRGGBB) by style keys
+   */
+  public HtmlRenderer(Map<String, Integer> colors) {
+    super(colors);
+  }
+
+  @Override
+  protected void appendRun(StringBuilder out, String content, int start, int end, Integer color) {
+    if (color != null) {
+      out.append("<span style=\"color:#").append(String.format("%06x", color & 0xFFFFFF)).append("\">");
+    }
+    for (int i = start; i < end; i++) {
+      char c = content.charAt(i);
+      switch (c) {
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '&':
+          out.append("&amp;");
+          break;
+        case '"':
+          out.append("&quot;");
+          break;
+        default:
+          out.append(c);
+      }
+    }
+    if (color != null) {
+      out.append("</span>");
+    }
+  }
+}
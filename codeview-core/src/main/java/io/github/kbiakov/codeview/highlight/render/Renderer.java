@@ -0,0 +1,146 @@
+package io.github.kbiakov.codeview.highlight.render;
+
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns;
+import io.github.kbiakov.codeview.highlight.parser.ParseResult;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders parsed content as text with colors of a color theme, e.g. to
+ * highlight code on a server or in a build tool.
+ */
+public abstract class Renderer {
+
+  /**
+   * The style key of plain text, its color is used for unknown styles.
+   */
+  protected static final String PLAIN = "pln";
+
+  /**
+   * Colors (0xRRGGBB) by style keys.
+   */
+  protected final Map<String, Integer> colors;
+
+  /**
+   * Constructor.
+   *
+   * @param colors the colors (0xRRGGBB) by style keys ("kwd", "str", ...)
+   */
+  protected Renderer(Map<String, Integer> colors) {
+    this.colors = colors;
+  }
+
+  /**
+   * Render the parsed content.
+   *
+   * @param content the content
+   * @param results the parse results of the content
+   * @return the rendered content
+   */
+  public String render(String content, List<ParseResult> results) {
+    return render(content, results, 0, content.length());
+  }
+
+  /**
+   * Render the part of the content from its decoration runs, without
+   * lexing it again.
+   *
+   * @param content the content
+   * @param runs the decoration runs of the content
+   * @param from the start position of the part
+   * @param to the end position of the part
+   * @return the rendered part
+   */
+  public String render(String content, DecorationRuns runs, int from, int to) {
+    return render(content, runs.toParseResults(from, to), from, to);
+  }
+
+  /**
+   * Render the part of the content, the text not covered by the results
+   * is rendered as is. Adjacent runs of the same color are rendered as one.
+   *
+   * @param content the content
+   * @param results the parse results ordered by offset
+   * @param from the start position of the part
+   * @param to the end position of the part
+   * @return the rendered part
+   */
+  protected String render(String content, List<ParseResult> results, int from, int to) {
+    StringBuilder out = new StringBuilder((to - from) * 2);
+    RunWriter writer = new RunWriter(out, content, from);
+    for (ParseResult result : results) {
+      int start = Math.max(writer.end, result.getOffset());
+      int end = Math.min(to, result.getOffset() + result.getLength());
+      if (start >= to) {
+        break;
+      }
+      if (end > start) {
+        // the text before the result has no color
+        writer.extend(start, null);
+        writer.extend(end, color(result));
+      }
+    }
+    writer.extend(to, null);
+    writer.flush();
+    return out.toString();
+  }
+
+  /**
+   * Append the run of the content with its color.
+   *
+   * @param out the rendered content
+   * @param content the content
+   * @param start the start position of the run
+   * @param end the end position of the run
+   * @param color the color (0xRRGGBB), null means no color
+   */
+  protected abstract void appendRun(StringBuilder out, String content, int start, int end, Integer color);
+
+  private static boolean equal(Integer color, Integer other) {
+    return color == null ? other == null : color.equals(other);
+  }
+
+  private Integer color(ParseResult result) {
+    List<String> keys = result.getStyleKeys();
+    Integer color = keys.isEmpty() ? null : colors.get(keys.get(0));
+    return color != null ? color : colors.get(PLAIN);
+  }
+
+  /**
+   * Writes runs of the content, extended while their color is the same.
+   */
+  private class RunWriter {
+
+    private final StringBuilder out;
+    private final String content;
+    private int start;
+    private int end;
+    private Integer color;
+
+    RunWriter(StringBuilder out, String content, int from) {
+      this.out = out;
+      this.content = content;
+      start = from;
+      end = from;
+    }
+
+    void extend(int newEnd, Integer newColor) {
+      if (newEnd <= end) {
+        return;
+      }
+      if (!equal(color, newColor)) {
+        flush();
+        start = end;
+        color = newColor;
+      }
+      end = newEnd;
+    }
+
+    void flush() {
+      if (end > start) {
+        appendRun(out, content, start, end, color);
+      }
+    }
+  }
+}
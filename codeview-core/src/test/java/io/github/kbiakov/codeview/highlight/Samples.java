@@ -0,0 +1,99 @@
+package io.github.kbiakov.codeview.highlight;
+
+import io.github.kbiakov.codeview.highlight.parser.ParseResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Code samples of the training set of the classifier, they're bundled with
+ * the Android library.
+ */
+public class Samples {
+
+  private static final File TRAINING_SET = new File("../codeview/src/main/assets/training-set");
+
+  private static List<Sample> samples;
+
+  /**
+   * Code sample.
+   */
+  public static class Sample {
+
+    public final String language;
+    public final String name;
+    public final String code;
+
+    public Sample(String language, String name, String code) {
+      this.language = language;
+      this.name = name;
+      this.code = code;
+    }
+
+    @Override
+    public String toString() {
+      return language + "/" + name;
+    }
+  }
+
+  /**
+   * @return the samples of all languages
+   * @throws IOException samples cannot be read
+   */
+  public static synchronized List<Sample> all() throws IOException {
+    if (samples == null) {
+      File[] dirs = TRAINING_SET.listFiles();
+      if (dirs == null) {
+        throw new IOException("no samples in " + TRAINING_SET.getAbsolutePath());
+      }
+      Arrays.sort(dirs);
+      List<Sample> list = new ArrayList<Sample>();
+      for (File dir : dirs) {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+          String code = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+          list.add(new Sample(dir.getName(), file.getName(), code));
+        }
+      }
+      samples = list;
+    }
+    return samples;
+  }
+
+  /**
+   * @return all the samples joined into one content
+   * @throws IOException samples cannot be read
+   */
+  public static String joined() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (Sample sample : all()) {
+      content.append(sample.code).append('\n');
+    }
+    return content.toString();
+  }
+
+  /**
+   * Style key of each character, so results split into runs differently
+   * can be compared.
+   *
+   * @param results the parse results
+   * @param length the length of the content
+   * @return the style keys by positions, null where there is no result
+   */
+  public static String[] styles(List<ParseResult> results, int length) {
+    String[] styles = new String[length];
+    for (ParseResult result : results) {
+      String key = result.getStyleKeys().get(0);
+      for (int i = result.getOffset(), end = result.getOffset() + result.getLength(); i < end; i++) {
+        styles[i] = key;
+      }
+    }
+    return styles;
+  }
+}
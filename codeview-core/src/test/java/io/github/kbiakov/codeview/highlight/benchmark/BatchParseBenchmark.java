@@ -0,0 +1,135 @@
+package io.github.kbiakov.codeview.highlight.benchmark;
+
+import io.github.kbiakov.codeview.highlight.Samples;
+import io.github.kbiakov.codeview.highlight.prettify.PrettifyParser;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget;
+import io.github.kbiakov.codeview.highlight.render.HtmlRenderer;
+import io.github.kbiakov.codeview.highlight.render.Renderer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Throughput of highlighting many snippets one by one & in a batch, as
+ * {@code CodeHighlighter.highlightAll} does it: snippets grouped by
+ * language, the groups split into parts by the number of cores & each
+ * part highlighted by one parser on the pool. Languages are known, the
+ * classification is not measured.
+ *
+ * <p>Run with {@code ./gradlew :codeview-core:benchmark -Pbenchmark=BatchParse}.
+ */
+public class BatchParseBenchmark {
+
+  private static final int SNIPPET_LINES = 40;
+  private static final int RUNS = 5;
+
+  private static class Snippet {
+
+    final String language;
+    final String code;
+
+    Snippet(String language, String code) {
+      this.language = language;
+      this.code = code;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final List<Snippet> snippets = snippets();
+    final Renderer renderer = new HtmlRenderer(colors());
+    int cores = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool = Executors.newFixedThreadPool(cores);
+
+    System.out.printf("%d snippets, %d cores%n", snippets.size(), cores);
+    long serial = Long.MAX_VALUE;
+    long reused = Long.MAX_VALUE;
+    long batch = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      // a parser per snippet, as code views highlight them one by one
+      long start = System.nanoTime();
+      for (Snippet snippet : snippets) {
+        renderer.render(snippet.code, new PrettifyParser().parse(snippet.language, snippet.code, LexerBudget.DEFAULT));
+      }
+      serial = Math.min(serial, System.nanoTime() - start);
+
+      // one parser for all snippets on one thread
+      start = System.nanoTime();
+      PrettifyParser parser = new PrettifyParser();
+      for (Snippet snippet : snippets) {
+        renderer.render(snippet.code, parser.parse(snippet.language, snippet.code, LexerBudget.DEFAULT));
+      }
+      reused = Math.min(reused, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      Map<String, List<Snippet>> byLanguage = new LinkedHashMap<String, List<Snippet>>();
+      for (Snippet snippet : snippets) {
+        List<Snippet> group = byLanguage.get(snippet.language);
+        if (group == null) {
+          group = new ArrayList<Snippet>();
+          byLanguage.put(snippet.language, group);
+        }
+        group.add(snippet);
+      }
+      int partSize = Math.max(1, (snippets.size() + cores - 1) / cores);
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (List<Snippet> group : byLanguage.values()) {
+        for (int from = 0; from < group.size(); from += partSize) {
+          final List<Snippet> part = group.subList(from, Math.min(group.size(), from + partSize));
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+              PrettifyParser parser = new PrettifyParser();
+              for (Snippet snippet : part) {
+                renderer.render(snippet.code, parser.parse(snippet.language, snippet.code, LexerBudget.DEFAULT));
+              }
+              return null;
+            }
+          });
+        }
+      }
+      pool.invokeAll(tasks);
+      batch = Math.min(batch, System.nanoTime() - start);
+    }
+    report("parser per snippet", serial, snippets.size());
+    report("one parser", reused, snippets.size());
+    report("batch", batch, snippets.size());
+    pool.shutdown();
+  }
+
+  private static void report(String name, long nanos, int count) {
+    System.out.printf("%s: %d ms, %.0f snippets/s%n", name, nanos / 1000000, count * 1e9 / nanos);
+  }
+
+  /**
+   * The samples cut into snippets of a few lines.
+   */
+  private static List<Snippet> snippets() throws Exception {
+    List<Snippet> snippets = new ArrayList<Snippet>();
+    for (Samples.Sample sample : Samples.all()) {
+      String[] lines = sample.code.split("\n");
+      for (int from = 0; from < lines.length; from += SNIPPET_LINES) {
+        StringBuilder code = new StringBuilder();
+        for (int i = from; i < Math.min(lines.length, from + SNIPPET_LINES); i++) {
+          code.append(lines[i]).append('\n');
+        }
+        snippets.add(new Snippet(sample.language, code.toString()));
+      }
+    }
+    return snippets;
+  }
+
+  private static Map<String, Integer> colors() {
+    Map<String, Integer> colors = new HashMap<String, Integer>();
+    String[] keys = {"pln", "str", "kwd", "com", "typ", "lit", "pun", "tag", "atn", "atv", "dec"};
+    for (int i = 0; i < keys.length; i++) {
+      colors.put(keys[i], 0x101010 * (i + 1));
+    }
+    return colors;
+  }
+}
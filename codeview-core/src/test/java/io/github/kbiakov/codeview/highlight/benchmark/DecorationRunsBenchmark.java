@@ -0,0 +1,171 @@
+package io.github.kbiakov.codeview.highlight.benchmark;
+
+import io.github.kbiakov.codeview.highlight.Samples;
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns;
+import io.github.kbiakov.codeview.highlight.parser.IntStore;
+import io.github.kbiakov.codeview.highlight.parser.ParseResult;
+import io.github.kbiakov.codeview.highlight.prettify.PrettifyParser;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget;
+import io.github.kbiakov.codeview.highlight.render.HtmlRenderer;
+import io.github.kbiakov.codeview.highlight.render.Renderer;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory taken by highlighting of a large content: parse results rendered
+ * into one highlighted string (as code content was shown before) & decoration
+ * runs in each store, which lines are rendered from when they're shown. The
+ * content is the samples joined till the size in MB of the first argument.
+ *
+ * <p>Heap is measured after GC while the result is kept, peak is the sum of
+ * peaks of heap pools. RSS is of the whole process, so pass the name of one
+ * strategy as the second argument to measure it alone.
+ *
+ * <p>Run with {@code ./gradlew :codeview-core:benchmark -Pbenchmark=DecorationRuns}.
+ */
+public class DecorationRunsBenchmark {
+
+  private static final int CHUNK_LINES = 1000;
+  private static final int MB = 1024 * 1024;
+
+  private interface Strategy {
+    Object highlight(String code) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    String only = args.length > 1 ? args[1] : null;
+    final String code = content(size * MB);
+    final PrettifyParser parser = new PrettifyParser();
+    final Renderer renderer = new HtmlRenderer(colors());
+    final File dir = Files.createTempDirectory("runs").toFile();
+
+    Map<String, Strategy> strategies = new LinkedHashMap<String, Strategy>();
+    strategies.put("html", new Strategy() {
+      @Override
+      public Object highlight(String code) {
+        List<ParseResult> results = parser.parse(null, code, LexerBudget.UNLIMITED);
+        return renderer.render(code, results);
+      }
+    });
+    strategies.put("onHeap", runs(parser, IntStore.onHeap()));
+    strategies.put("direct", runs(parser, IntStore.direct()));
+    strategies.put("mapped", runs(parser, IntStore.mapped(dir)));
+
+    System.out.printf("%d chars, %d MB max heap%n", code.length(), Runtime.getRuntime().maxMemory() / MB);
+    parser.parse(null, code.substring(0, Math.min(code.length(), MB)), LexerBudget.UNLIMITED); // warm up
+    for (Map.Entry<String, Strategy> entry : strategies.entrySet()) {
+      if (only == null || only.equals(entry.getKey())) {
+        measure(entry.getKey(), entry.getValue(), code);
+      }
+    }
+    dir.delete();
+  }
+
+  private static Strategy runs(final PrettifyParser parser, final IntStore store) {
+    return new Strategy() {
+      @Override
+      public Object highlight(String code) {
+        return parser.parse(null, code, LexerBudget.UNLIMITED, new DecorationRuns(store), CHUNK_LINES);
+      }
+    };
+  }
+
+  private static void measure(String name, Strategy strategy, String code) throws Exception {
+    long heapBefore = usedHeap();
+    long rssBefore = rss();
+    long gcBefore = gcMillis();
+    for (MemoryPoolMXBean pool : heapPools()) {
+      pool.resetPeakUsage();
+    }
+
+    long start = System.nanoTime();
+    Object result = strategy.highlight(code);
+    long millis = (System.nanoTime() - start) / 1000000;
+    long gc = gcMillis() - gcBefore;
+    long peak = 0;
+    for (MemoryPoolMXBean pool : heapPools()) {
+      peak += pool.getPeakUsage().getUsed();
+    }
+    long heap = usedHeap() - heapBefore;
+    long rss = rss() - rssBefore;
+
+    System.out.printf("%s: %d ms, GC %d ms, kept heap %.1f MB, peak heap %.1f MB, RSS %+.1f MB%n",
+        name, millis, gc, (double) heap / MB, (double) (peak - heapBefore) / MB, (double) rss / MB);
+    if (result instanceof DecorationRuns) {
+      ((DecorationRuns) result).close();
+    }
+  }
+
+  private static String content(int length) throws Exception {
+    String samples = Samples.joined();
+    StringBuilder content = new StringBuilder(length + samples.length());
+    while (content.length() < length) {
+      content.append(samples);
+    }
+    return content.toString();
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pools.add(pool);
+      }
+    }
+    return pools;
+  }
+
+  private static long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+
+  /**
+   * Resident set size of the process, 0 where /proc is not available.
+   */
+  private static long rss() throws Exception {
+    File status = new File("/proc/self/status");
+    if (!status.exists()) {
+      return 0;
+    }
+    for (String line : Files.readAllLines(status.toPath(), Charset.forName("UTF-8"))) {
+      if (line.startsWith("VmRSS:")) {
+        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+      }
+    }
+    return 0;
+  }
+
+  private static Map<String, Integer> colors() {
+    Map<String, Integer> colors = new HashMap<String, Integer>();
+    String[] keys = {"pln", "str", "kwd", "com", "typ", "lit", "pun", "tag", "atn", "atv", "dec"};
+    for (int i = 0; i < keys.length; i++) {
+      colors.put(keys[i], 0x101010 * (i + 1));
+    }
+    return colors;
+  }
+}
@@ -0,0 +1,57 @@
+package io.github.kbiakov.codeview.highlight.benchmark;
+
+import io.github.kbiakov.codeview.highlight.Samples;
+import io.github.kbiakov.codeview.highlight.prettify.PrettifyParser;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Time of sequential & parallel parsing of a large content by the number
+ * of threads (up to the number of cores or the first argument), the content
+ * is the samples joined a few times.
+ *
+ * <p>Run with {@code ./gradlew :codeview-core:benchmark -Pbenchmark=ParallelParse}.
+ */
+public class ParallelParseBenchmark {
+
+  private static final int COPIES = 10;
+  private static final int RUNS = 5;
+
+  public static void main(String[] args) throws Exception {
+    StringBuilder content = new StringBuilder();
+    String samples = Samples.joined();
+    for (int i = 0; i < COPIES; i++) {
+      content.append(samples);
+    }
+    String code = content.toString();
+    int cores = Runtime.getRuntime().availableProcessors();
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+    PrettifyParser parser = new PrettifyParser();
+    ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+
+    System.out.printf("%d chars, %d cores%n", code.length(), cores);
+    for (String language : new String[]{null, "html"}) {
+      long sequential = 0;
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+          long start = System.nanoTime();
+          if (threads == 1) {
+            parser.parse(language, code, LexerBudget.UNLIMITED);
+          } else {
+            parser.parse(language, code, LexerBudget.UNLIMITED, executor, threads);
+          }
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        if (threads == 1) {
+          sequential = best;
+        }
+        System.out.printf("%s, %d threads: %d ms, speedup %.2fx%n",
+            language, threads, best / 1000000, (double) sequential / best);
+      }
+    }
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,253 @@
+package io.github.kbiakov.codeview.highlight.prettify;
+
+import io.github.kbiakov.codeview.highlight.Samples;
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns;
+import io.github.kbiakov.codeview.highlight.parser.IntStore;
+import io.github.kbiakov.codeview.highlight.parser.ParseResult;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget;
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerCheckpoints;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checkpointed, chunked & parallel parsing are expected to give the same
+ * results as plain sequential parsing.
+ */
+public class PrettifyParserTest {
+
+  private static final LexerBudget[] BUDGETS = {
+      LexerBudget.UNLIMITED,
+      new LexerBudget(0, 0, 60)
+  };
+
+  private static final PrettifyParser parser = new PrettifyParser();
+  private static final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @AfterClass
+  public static void shutdown() {
+    executor.shutdown();
+  }
+
+  private static String[] sequential(String language, String code, LexerBudget budget) {
+    return Samples.styles(parser.parse(language, code, budget), code.length());
+  }
+
+  /**
+   * Check that the styles are the expected ones till some position & plain
+   * text after it, as when lexing is stopped by the budget there.
+   *
+   * @return the position, the length when nothing is plain instead
+   */
+  private static int plainFrom(String message, String[] expected, String[] styles) {
+    int from = 0;
+    while (from < styles.length && expected[from].equals(styles[from])) {
+      from++;
+    }
+    for (int i = from; i < styles.length; i++) {
+      assertEquals(message + " at " + i, "pln", styles[i]);
+    }
+    return from;
+  }
+
+  private static int lineCount(String code) {
+    int count = 1;
+    for (int i = code.indexOf('\n'); i != -1; i = code.indexOf('\n', i + 1)) {
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void parseEmbeddedAtAnyOffset() throws Exception {
+    String tag = "<p id=x>";
+    for (int offset = 0; offset < 4; offset++) {
+      String code = "    ".substring(0, offset) + tag;
+      String[] styles = Samples.styles(parser.parse("html", code, LexerBudget.UNLIMITED), code.length());
+      // the end of the embedded part is not taken for the end of source
+      assertEquals(code, "tag", styles[code.length() - 1]);
+      assertEquals(code, "atv", styles[code.length() - 2]);
+    }
+  }
+
+  /**
+   * Baseline lexer took the end of an embedded part after the source start
+   * for the end of source, so the closing '>' of a tag after one space was
+   * colored as the attribute value ("atv" of 7+2). It's a tag now.
+   */
+  @Test
+  public void parseEmbeddedTagEnd() throws Exception {
+    List<ParseResult> results = parser.parse("html", " <p id=x>", LexerBudget.UNLIMITED);
+    int[][] spans = {{0, 1}, {1, 2}, {3, 1}, {4, 2}, {6, 1}, {7, 1}, {8, 1}};
+    String[] styles = {"pln", "tag", "pln", "atn", "pun", "atv", "tag"};
+    assertEquals(spans.length, results.size());
+    for (int i = 0; i < spans.length; i++) {
+      ParseResult result = results.get(i);
+      assertEquals("offset " + i, spans[i][0], result.getOffset());
+      assertEquals("length " + i, spans[i][1], result.getLength());
+      assertEquals("style " + i, styles[i], result.getStyleKeys().get(0));
+    }
+  }
+
+  @Test
+  public void parseWithCheckpoints() throws Exception {
+    for (Samples.Sample sample : Samples.all()) {
+      for (LexerBudget budget : BUDGETS) {
+        String[] expected = sequential(sample.language, sample.code, budget);
+        List<ParseResult> results = parser.parse(sample.language, sample.code, budget, new LexerCheckpoints(7));
+        assertArrayEquals(sample.toString(), expected, Samples.styles(results, sample.code.length()));
+      }
+    }
+  }
+
+  @Test
+  public void parseLinesFromCheckpoints() throws Exception {
+    for (Samples.Sample sample : Samples.all()) {
+      for (LexerBudget budget : BUDGETS) {
+        String[] expected = sequential(sample.language, sample.code, budget);
+        int lines = lineCount(sample.code);
+
+        // checkpoints are recorded on the way
+        LexerCheckpoints checkpoints = new LexerCheckpoints(5);
+        List<ParseResult> results = new ArrayList<ParseResult>();
+        for (int from = 0, step = 1; from < lines; from += step, step = step * 2 % 37 + 1) {
+          results.addAll(parser.parse(sample.language, sample.code, budget, checkpoints, from, from + step));
+        }
+        assertArrayEquals(sample.toString(), expected, Samples.styles(results, sample.code.length()));
+
+        // lines parsed backwards from the recorded checkpoints
+        results.clear();
+        for (int to = lines; to > 0; to -= 11) {
+          results.addAll(parser.parse(sample.language, sample.code, budget, checkpoints, Math.max(0, to - 11), to));
+        }
+        assertArrayEquals(sample.toString(), expected, Samples.styles(results, sample.code.length()));
+      }
+    }
+  }
+
+  @Test
+  public void parseAppendedFromRestartLines() throws Exception {
+    for (Samples.Sample sample : Samples.all()) {
+      String code = sample.code;
+      String[] expected = sequential(sample.language, code, LexerBudget.UNLIMITED);
+      String[] styles = new String[code.length()];
+
+      // lines are appended by batches, text from the restart line of the
+      // last batch is lexed again with the next one
+      int windowStart = 0;
+      int end = 0;
+      for (int step = 1; end < code.length(); step = step * 3 % 17 + 1) {
+        for (int i = 0; i < step && end != -1; i++) {
+          end = code.indexOf('\n', end + 1);
+        }
+        end = end == -1 ? code.length() : end;
+        String source = code.substring(windowStart, end);
+        LexerCheckpoints checkpoints = new LexerCheckpoints(1);
+        String[] window = Samples.styles(parser.parse(sample.language, source, LexerBudget.UNLIMITED, checkpoints),
+            source.length());
+        System.arraycopy(window, 0, styles, windowStart, window.length);
+
+        int lastLine = lineCount(source) - 1;
+        int restartLine = checkpoints.getRestartLine(source, lastLine);
+        windowStart += checkpoints.getLineStart(source, restartLine);
+      }
+      assertArrayEquals(sample.toString(), expected, styles);
+    }
+  }
+
+  @Test
+  public void parseChunkedRuns() throws Exception {
+    for (Samples.Sample sample : Samples.all()) {
+      int length = sample.code.length();
+      String[] expected = sequential(sample.language, sample.code, LexerBudget.UNLIMITED);
+      for (int chunkLines : new int[]{1, 7, 100, 1000}) {
+        if (chunkLines == 1 && length > 20000) {
+          continue;
+        }
+        for (IntStore store : new IntStore[]{IntStore.onHeap(), IntStore.direct()}) {
+          DecorationRuns runs = parser.parse(sample.language, sample.code, LexerBudget.UNLIMITED,
+              new DecorationRuns(store), chunkLines);
+          try {
+            String message = sample + " by " + chunkLines + " lines";
+            assertArrayEquals(message, expected, Samples.styles(runs.toParseResults(0, length), length));
+            assertArrayEquals(message, expected, Samples.styles(runs.asParseResults(), length));
+          } finally {
+            runs.close();
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void parseParallelRuns() throws Exception {
+    List<Samples.Sample> samples = new ArrayList<Samples.Sample>(Samples.all());
+    // larger than a part of 1M chars, as the view parses it
+    samples.add(new Samples.Sample(null, "joined", Samples.joined()));
+    for (Samples.Sample sample : samples) {
+      int length = sample.code.length();
+      String[] expected = sequential(sample.language, sample.code, LexerBudget.UNLIMITED);
+      for (int partLength : new int[]{1000, 30000, 1 << 20}) {
+        if (partLength == 1000 && length > 100000) {
+          continue;
+        }
+        for (IntStore store : new IntStore[]{IntStore.onHeap(), IntStore.direct()}) {
+          DecorationRuns runs = parser.parse(sample.language, sample.code, LexerBudget.UNLIMITED,
+              new DecorationRuns(store), executor, 3, partLength);
+          try {
+            String message = sample + " by " + partLength + " chars";
+            assertArrayEquals(message, expected, Samples.styles(runs.asParseResults(), length));
+          } finally {
+            runs.close();
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void parseParallelWithinSharedBudget() throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (Samples.Sample sample : Samples.all()) {
+      if (sample.language.equals("c")) {
+        content.append(sample.code).append('\n');
+      }
+    }
+    String code = content.toString();
+    String[] expected = sequential("c", code, LexerBudget.UNLIMITED);
+    // about 70% of the steps of lexing the whole content (3.5M), so each
+    // part would be lexed within it if the budget was not shared
+    LexerBudget budget = new LexerBudget(0, 2500000, 0);
+    assertTrue(plainFrom("sequential", expected, sequential("c", code, budget)) < code.length());
+    for (int parallelism : new int[]{2, 3, 7}) {
+      List<ParseResult> results = parser.parse("c", code, budget, executor, parallelism);
+      String message = "in " + parallelism + " parts";
+      assertTrue(message, plainFrom(message, expected, Samples.styles(results, code.length())) < code.length());
+    }
+  }
+
+  @Test
+  public void parseParallel() throws Exception {
+    List<Samples.Sample> samples = new ArrayList<Samples.Sample>(Samples.all());
+    samples.add(new Samples.Sample(null, "joined", Samples.joined()));
+    samples.add(new Samples.Sample("html", "joined", Samples.joined()));
+    for (Samples.Sample sample : samples) {
+      for (LexerBudget budget : BUDGETS) {
+        String[] expected = sequential(sample.language, sample.code, budget);
+        for (int parallelism : new int[]{2, 3, 7}) {
+          List<ParseResult> results = parser.parse(sample.language, sample.code, budget, executor, parallelism);
+          String message = sample + " in " + parallelism + " parts";
+          assertArrayEquals(message, expected, Samples.styles(results, sample.code.length()));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package io.github.kbiakov.codeview.highlight.prettify.parser;
+
+import io.github.kbiakov.codeview.highlight.Samples;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class UtilTest {
+
+  /**
+   * The previous implementation of {@link Util#removeDuplicates(List, int)}
+   * through a sorted map, the results are expected to be the same.
+   */
+  private static List<Object> removeDuplicatesByMap(List<Object> decorations, int sourceLength) {
+    Map<Integer, Object> orderedMap = new TreeMap<Integer, Object>();
+    for (int i = 0, iEnd = decorations.size(); i < iEnd; i += 2) {
+      orderedMap.put((Integer) decorations.get(i), decorations.get(i + 1));
+    }
+    List<Object> returnList = new ArrayList<Object>();
+    String previousStyle = null;
+    for (Integer pos : orderedMap.keySet()) {
+      String style = (String) orderedMap.get(pos);
+      if (previousStyle != null && previousStyle.equals(style)) {
+        continue;
+      }
+      returnList.add(pos);
+      returnList.add(style);
+      previousStyle = style;
+    }
+    int returnListSize = returnList.size();
+    if (returnListSize >= 4 && returnList.get(returnListSize - 2).equals(sourceLength)) {
+      returnList.remove(returnListSize - 2);
+      returnList.remove(returnListSize - 2);
+    }
+    return returnList;
+  }
+
+  private static void assertSameAsByMap(List<Object> decorations, int sourceLength) {
+    List<Object> expected = removeDuplicatesByMap(decorations, sourceLength);
+    assertEquals(expected, Util.removeDuplicates(new ArrayList<Object>(decorations), sourceLength));
+  }
+
+  @Test
+  public void removeDuplicatesOfLexerDecorations() throws Throwable {
+    final List<Samples.Sample> samples = Samples.all();
+    final Throwable[] failure = new Throwable[1];
+    // lexing without budget needs a deep stack for the huge tokens of some samples
+    Thread thread = new Thread(null, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Prettify prettify = new Prettify();
+          for (Samples.Sample sample : samples) {
+            Job job = new Job(0, sample.code);
+            prettify.langHandlerForExtension(sample.language, sample.code).decorate(job);
+            assertSameAsByMap(job.getDecorations(), sample.code.length());
+          }
+        } catch (Throwable e) {
+          failure[0] = e;
+        }
+      }
+    }, "lexer", 256L * 1024 * 1024);
+    thread.start();
+    thread.join();
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+
+  @Test
+  public void removeDuplicatesOfRandomDecorations() {
+    Random random = new Random(26);
+    String[] styles = {Prettify.PR_PLAIN, Prettify.PR_KEYWORD, Prettify.PR_STRING};
+    for (int n = 0; n < 10000; n++) {
+      int length = random.nextInt(20);
+      boolean sorted = random.nextBoolean();
+      List<Object> decorations = new ArrayList<Object>();
+      for (int i = random.nextInt(12), pos = 0; i > 0; i--) {
+        pos = sorted ? pos + random.nextInt(3) : random.nextInt(length + 1);
+        decorations.add(Math.min(pos, length));
+        decorations.add(styles[random.nextInt(styles.length)]);
+      }
+      assertSameAsByMap(decorations, length);
+    }
+  }
+
+  @Test
+  public void removeDuplicatesInPlace() {
+    List<Object> decorations = new ArrayList<Object>(Arrays.<Object>asList(
+        0, "pln", 0, "kwd", 3, "kwd", 5, "pln", 5, "str", 8, "pln"));
+    List<Object> result = Util.removeDuplicates(decorations, 8);
+    assertEquals(Arrays.<Object>asList(0, "kwd", 5, "str"), result);
+    assertSame(decorations, result);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void removeDuplicatesOfOddSize() {
+    Util.removeDuplicates(new ArrayList<Object>(Arrays.<Object>asList(0, "pln", 3)), 5);
+  }
+}
@@ -0,0 +1,75 @@
+package io.github.kbiakov.codeview
+
+import android.os.SystemClock
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import android.support.v7.widget.LinearLayoutManager
+import android.support.v7.widget.RecyclerView
+import android.util.Log
+import android.view.View
+import io.github.kbiakov.codeview.adapters.CodeWithNotesAdapter
+import io.github.kbiakov.codeview.adapters.Options
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.*
+
+/**
+ * @class LineRecyclingBenchmark
+ *
+ * Scrolls a list of 5000 code lines by steps of a third of screen, counts
+ * created line holders & reports time of steps (frames): a step longer
+ * than a frame (16 ms) is a jank frame.
+ */
+@RunWith(AndroidJUnit4::class)
+class LineRecyclingBenchmark {
+
+    @Test
+    fun scrollLines() {
+        val instrumentation = InstrumentationRegistry.getInstrumentation()
+        val context = instrumentation.targetContext
+        val metrics = context.resources.displayMetrics
+        val code = (1..LineCount).joinToString("\n") { "val line$it = listOf($it, \"$it\") // line $it" }
+
+        instrumentation.runOnMainSync {
+            val adapter = CodeWithNotesAdapter(context, Options(context, code, "kotlin"))
+            val list = RecyclerView(context).apply {
+                layoutManager = LinearLayoutManager(context)
+                this.adapter = adapter
+                measure(View.MeasureSpec.makeMeasureSpec(metrics.widthPixels, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(metrics.heightPixels, View.MeasureSpec.EXACTLY))
+                layout(0, 0, metrics.widthPixels, metrics.heightPixels)
+            }
+
+            val holders = Collections.newSetFromMap(IdentityHashMap<RecyclerView.ViewHolder, Boolean>())
+            fun collectHolders() = (0 until list.childCount).forEach {
+                holders.add(list.getChildViewHolder(list.getChildAt(it)))
+            }
+            collectHolders()
+            val visible = list.childCount
+
+            val frames = ArrayList<Long>()
+            while (list.canScrollVertically(1)) {
+                val start = SystemClock.elapsedRealtimeNanos()
+                list.scrollBy(0, metrics.heightPixels / 3)
+                frames.add(SystemClock.elapsedRealtimeNanos() - start)
+                collectHolders()
+            }
+
+            frames.sort()
+            val jank = frames.count { it > FrameNanos }
+            Log.i(Tag, "lines $LineCount, visible rows $visible, created holders ${holders.size}")
+            Log.i(Tag, "frames ${frames.size}: median ${frames[frames.size / 2] / 1000} us, " +
+                    "p90 ${frames[frames.size * 9 / 10] / 1000} us, max ${frames.last() / 1000} us, jank $jank")
+
+            // a screen of rows & the rows scrolled in by one step
+            assertTrue("created holders: ${holders.size}", holders.size <= visible * 2 + 2)
+        }
+    }
+
+    companion object {
+        private const val Tag = "LineRecyclingBenchmark"
+        private const val LineCount = 5000
+        private const val FrameNanos = 16_000_000L
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.kbiakov.codeview
+
+import android.support.test.InstrumentationRegistry
+import android.support.test.runner.AndroidJUnit4
+import io.github.kbiakov.codeview.adapters.CodeWithNotesAdapter
+import io.github.kbiakov.codeview.adapters.Options
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * @class TailFollowTest
+ *
+ * Code appended to followed content after it's replaced starts from new
+ * content, partial line & lexed lines of previous content are dropped.
+ */
+@RunWith(AndroidJUnit4::class)
+class TailFollowTest {
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+    private val context = instrumentation.targetContext
+
+    @Test
+    fun appendAfterSetCode() {
+        val adapter = CodeWithNotesAdapter(context, Options(context, "", "java"))
+
+        append(adapter, "int a = 1;\n/* not closed\nint b")
+        assertEquals(listOf("int a = 1;", "/* not closed"), contents(adapter))
+
+        instrumentation.runOnMainSync { adapter.updateCode("x\ny\nw") }
+        awaitLines(adapter, 3)
+
+        append(adapter, "z\n")
+        assertEquals(listOf("x", "y", "w", "z"), contents(adapter))
+    }
+
+    /**
+     * Append code & wait till its lines are shown.
+     */
+    private fun append(adapter: CodeWithNotesAdapter, code: String) {
+        instrumentation.runOnMainSync { adapter.appendCode(code) }
+        val latch = CountDownLatch(1)
+        Thread.serial { latch.countDown() }
+        latch.await(Timeout, TimeUnit.SECONDS)
+        instrumentation.waitForIdleSync()
+    }
+
+    private fun awaitLines(adapter: CodeWithNotesAdapter, count: Int) {
+        val deadline = System.currentTimeMillis() + Timeout * 1000
+        while (adapter.lineCount != count && System.currentTimeMillis() < deadline)
+            instrumentation.waitForIdleSync()
+    }
+
+    private fun contents(adapter: CodeWithNotesAdapter) =
+            (0 until adapter.lineCount).map { adapter.lineContent(it).toString() }
+
+    companion object {
+        private const val Timeout = 10L
+    }
+}
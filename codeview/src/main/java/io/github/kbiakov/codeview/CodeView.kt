@@ -1,19 +1,31 @@
 package io.github.kbiakov.codeview
 
 import android.content.Context
+import android.graphics.Paint
+import android.graphics.Typeface
 import android.graphics.drawable.Drawable
 import android.graphics.drawable.GradientDrawable
 import android.support.v7.widget.LinearLayoutManager
 import android.support.v7.widget.RecyclerView
 import android.util.AttributeSet
+import android.util.TypedValue
 import android.view.View
+import android.view.ViewTreeObserver
 import android.widget.RelativeLayout
 import io.github.kbiakov.codeview.Thread.delayed
 import io.github.kbiakov.codeview.adapters.AbstractCodeAdapter
 import io.github.kbiakov.codeview.adapters.CodeWithNotesAdapter
+import io.github.kbiakov.codeview.adapters.Format
 import io.github.kbiakov.codeview.adapters.Options
 import io.github.kbiakov.codeview.highlight.ColorThemeData
+import io.github.kbiakov.codeview.highlight.HighlightPrefetcher
 import io.github.kbiakov.codeview.highlight.color
+import io.github.kbiakov.codeview.highlight.payload.CodePayload
+import io.github.kbiakov.codeview.source.CodeSource
+import io.github.kbiakov.codeview.views.BidirectionalScrollView
+import io.github.kbiakov.codeview.views.CodeCanvasView
+import io.github.kbiakov.codeview.views.MinimapTarget
+import io.github.kbiakov.codeview.views.MinimapView
 
 /**
  * @class CodeView
@@ -28,9 +40,32 @@ class CodeView @JvmOverloads constructor(
         defStyleAttr: Int = 0
 ) : RelativeLayout(context, attrs, defStyleAttr) {
 
+    private val vScroll: BidirectionalScrollView
     private val vCodeList: RecyclerView
+    private val vCodeCanvas: CodeCanvasView
+    private val vMinimap: MinimapView
     private val vShadows: Map<ShadowPosition, View>
 
+    private var isFollowingEnd = false
+
+    /**
+     * Width of column is measured when font or format is changed.
+     */
+    private val columnPaint = Paint()
+    private var font: Typeface? = null
+    private var format: Format? = null
+    private var columnWidth = 0f
+
+    /**
+     * Content width depends on lines of adapter.
+     */
+    private val linesObserver = object : RecyclerView.AdapterDataObserver() {
+        override fun onChanged() = setupContentWidth()
+        override fun onItemRangeChanged(positionStart: Int, itemCount: Int) = setupContentWidth()
+        override fun onItemRangeInserted(positionStart: Int, itemCount: Int) = setupContentWidth()
+        override fun onItemRangeRemoved(positionStart: Int, itemCount: Int) = setupContentWidth()
+    }
+
     /**
      * Primary constructor.
      */
@@ -38,10 +73,13 @@ class CodeView @JvmOverloads constructor(
         inflate(context, R.layout.layout_code_view, this)
         attrs?.let(::checkStartAnimation)
 
+        vScroll = findViewById(R.id.v_scroll)
         vCodeList = findViewById<RecyclerView>(R.id.rv_code_content).apply {
             layoutManager = LinearLayoutManager(context)
             isNestedScrollingEnabled = true
         }
+        vCodeCanvas = findViewById(R.id.v_code_canvas)
+        vMinimap = findViewById(R.id.v_minimap)
 
         vShadows = mapOf(
                 ShadowPosition.RightBorder to R.id.shadow_right_border,
@@ -81,11 +119,22 @@ class CodeView @JvmOverloads constructor(
     /**
      * Highlight code with defined programming language.
      * It holds the placeholder on view until code is not highlighted.
+     * Code highlighted before (see [HighlightPrefetcher] & [setPayload])
+     * is shown at once.
      */
     private fun highlight() {
         getAdapter()?.apply {
-            highlight {
-                checkHighlightAnimation(::notifyDataSetChanged)
+            if (highlightCached()) {
+                animate().cancel()
+                alpha = Const.Alpha.Visible
+                vMinimap.minimap = minimap
+                return
+            }
+            highlight { update ->
+                checkHighlightAnimation {
+                    update()
+                    vMinimap.minimap = minimap
+                }
             }
         }
     }
@@ -125,10 +174,71 @@ class CodeView @JvmOverloads constructor(
      * @param adapter Adapter
      */
     fun setAdapter(adapter: AbstractCodeAdapter<*>) {
+        getAdapter()?.apply {
+            unregisterAdapterDataObserver(linesObserver)
+            columnsListener = null
+            // previous content is not shown anymore
+            if (this !== adapter) cancelHighlighting()
+        }
         vCodeList.adapter = adapter
+        adapter.registerAdapterDataObserver(linesObserver)
+        adapter.columnsListener = ::setupContentWidth
+        setupRenderer(adapter.options)
+        setupContentWidth()
         highlight()
     }
 
+    /**
+     * Width of content is fixed by the longest line, so horizontal scroll
+     * extent is known before lines are shown (columns of the longest line
+     * are counted by adapter in background).
+     */
+    private fun setupContentWidth() {
+        val adapter = getAdapter() ?: return
+        val options = adapter.options
+        if (font !== options.font || format != options.format) {
+            columnPaint.apply {
+                typeface = options.font
+                textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP,
+                        options.format.fontSize, resources.displayMetrics)
+            }
+            columnWidth = columnPaint.measureText(WidestChar)
+            font = options.font
+            format = options.format
+        }
+        vScroll.contentWidth = resources.getDimensionPixelSize(R.dimen.line_num_width) +
+                resources.getDimensionPixelSize(R.dimen.default_margin) * 2 +
+                Math.ceil((adapter.maxColumns * columnWidth).toDouble()).toInt()
+    }
+
+    /**
+     * Code lines are drawn on single canvas or shown as list of views,
+     * fast-scroll strip scrolls the one which is shown.
+     *
+     * @param options Options
+     */
+    private fun setupRenderer(options: Options) {
+        val isCanvas = options.canvasRendering
+        vScroll.visibility = if (isCanvas) GONE else VISIBLE
+        vCodeCanvas.visibility = if (isCanvas) VISIBLE else GONE
+        vCodeCanvas.setAdapter(if (isCanvas) getAdapter() else null)
+
+        val target = scrollTarget(options)
+        vMinimap.apply {
+            visibility = if (options.fastScroll) VISIBLE else GONE
+            setTarget(if (options.fastScroll) target else null)
+            setTheme(options.theme)
+            minimap = if (options.minimap) getAdapter()?.minimap else null
+        }
+    }
+
+    /**
+     * @param options Options
+     * @return View which scrolls code lines
+     */
+    private fun scrollTarget(options: Options): MinimapTarget =
+            if (options.canvasRendering) vCodeCanvas else vScroll
+
     // - Options
 
     /**
@@ -146,6 +256,8 @@ class CodeView @JvmOverloads constructor(
         getAdapter() ?: setOptions(options)
         getAdapter()?.options = options
         setupShadows(options.shadows)
+        setupRenderer(options)
+        setupContentWidth()
     }
 
     fun updateOptions(body: Options.() -> Unit) {
@@ -187,6 +299,7 @@ class CodeView @JvmOverloads constructor(
     fun setCode(code: String) {
         getAdapter() ?: prepare()
         getAdapter()?.updateCode(code)
+        highlight()
     }
 
     /**
@@ -203,10 +316,77 @@ class CodeView @JvmOverloads constructor(
         val options = getOptionsOrDefault()
         updateOptions(options.withLanguage(language))
         getAdapter()?.updateCode(code)
+        highlight()
+    }
+
+    /**
+     * Set pre-highlighted code (e.g. by server), it's shown at once with
+     * current color theme, code is not classified & lexed.
+     *
+     * @param payload Pre-highlighted code
+     */
+    fun setPayload(payload: CodePayload) {
+        val options = getOptionsOrDefault()
+        updateOptions(options.withPayload(payload))
+        getAdapter()?.updateCode(payload.code)
+        highlight()
+    }
+
+    /**
+     * Set code source, only shown lines are read & highlighted. Source is
+     * not closed by view.
+     *
+     * @param source Code source
+     */
+    fun setSource(source: CodeSource) {
+        getAdapter() ?: prepare()
+        getAdapter()?.updateSource(source)
+        highlight()
+    }
+
+    /**
+     * Append code to the end (follow live log), only appended text is
+     * highlighted. If code is scrolled to the end, it's kept scrolled to
+     * the end when lines are appended.
+     *
+     * @param code Code to append
+     */
+    fun appendCode(code: String) {
+        getAdapter() ?: prepare()
+        getAdapter()?.apply {
+            appendCode(code) { append ->
+                val target = scrollTarget(options)
+                val isPinned = target.scrollOffset + target.viewportHeight >= target.contentHeight
+                append()
+                if (isPinned) scrollToEndOnLayout(target)
+            }
+        }
+    }
+
+    /**
+     * Scroll to the end when appended lines are laid out.
+     *
+     * @param target View which scrolls code lines
+     */
+    private fun scrollToEndOnLayout(target: MinimapTarget) {
+        if (isFollowingEnd)
+            return
+
+        isFollowingEnd = true
+        viewTreeObserver.addOnGlobalLayoutListener(object : ViewTreeObserver.OnGlobalLayoutListener {
+            @Suppress("deprecation")
+            override fun onGlobalLayout() {
+                viewTreeObserver.removeGlobalOnLayoutListener(this)
+                isFollowingEnd = false
+                target.scrollToOffset(target.contentHeight)
+            }
+        })
     }
 
     companion object {
 
+        private const val WidestChar = "W"
+
         private fun AttributeSet.isAnimateOnStart(context: Context): Boolean {
             context.theme.obtainStyledAttributes(this, R.styleable.CodeView, 0, 0).apply {
                 val flag = getBoolean(R.styleable.CodeView_animateOnStart, false)
@@ -0,0 +1,28 @@
+package io.github.kbiakov.codeview
+
+import android.view.View
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+
+/**
+ * Scope of coroutines bound to code view, it's cancelled when view is
+ * detached from window (e.g. scrolled out of list), so highlighting
+ * started in it is stopped. New scope is created when view is used again.
+ */
+val CodeView.highlightScope: CoroutineScope
+    get() = getTag(R.id.codeview_highlight_scope) as? CoroutineScope
+            ?: SupervisorJob().let { job ->
+                val scope = CoroutineScope(job + Dispatchers.Main)
+                setTag(R.id.codeview_highlight_scope, scope)
+                addOnAttachStateChangeListener(object : View.OnAttachStateChangeListener {
+                    override fun onViewAttachedToWindow(v: View) = Unit
+
+                    override fun onViewDetachedFromWindow(v: View) {
+                        removeOnAttachStateChangeListener(this)
+                        setTag(R.id.codeview_highlight_scope, null)
+                        job.cancel()
+                    }
+                })
+                scope
+            }
@@ -8,6 +8,7 @@ import android.text.SpannableString
 import android.text.Spanned
 import android.text.TextUtils
 import android.util.TypedValue
+import io.github.kbiakov.codeview.source.TextLines
 import java.io.BufferedReader
 import java.io.InputStreamReader
 import java.util.concurrent.Executors
@@ -44,12 +45,12 @@ fun dpToPx(context: Context, dp: Int) =
 fun spaceSplit(source: String) = source.split("\\s".toRegex())
 
 /**
- * Split string for lines.
+ * Split string for lines, lines are cut from string when accessed.
  *
  * @param source Source
  * @return Split string
  */
-fun extractLines(source: String) = listOf(*source.split("\n").toTypedArray())
+fun extractLines(source: String): List<String> = TextLines(source)
 
 /**
  * Slice list by index.
@@ -57,7 +58,21 @@ fun extractLines(source: String) = listOf(*source.split("\n").toTypedArray())
  * @param idx Index to slice
  * @return Pair of lists with head and tail
  */
-fun <T> List<T>.slice(idx: Int) = Pair(subList(0, idx), subList(idx, lastIndex))
+fun <T> List<T>.slice(idx: Int) = Pair(subList(0, idx), subList(idx, size))
+
+/**
+ * Join lists without copying (list of both lists).
+ *
+ * @param other List to join
+ * @return Joined list
+ */
+fun <T> List<T>.concat(other: List<T>): List<T> = object : AbstractList<T>(), RandomAccess {
+    override val size: Int
+        get() = this@concat.size + other.size
+
+    override fun get(index: Int) =
+            if (index < this@concat.size) this@concat[index] else other[index - this@concat.size]
+}
 
 /**
  * Get HTML from string.
@@ -83,13 +98,49 @@ private fun String.startSpacesForTaggedString(): String {
 }
 
 object Thread {
+    /**
+     * Shared workers of async operations (daemons, so they don't keep
+     * process alive).
+     */
+    private val asyncExecutor = Executors.newFixedThreadPool(
+            maxOf(2, Runtime.getRuntime().availableProcessors())) { worker(it) }
+    private val serialExecutor = Executors.newSingleThreadExecutor { worker(it) }
+    private val idleExecutor = Executors.newSingleThreadExecutor {
+        worker(it, java.lang.Thread.MIN_PRIORITY)
+    }
+
+    private fun worker(body: Runnable, priority: Int = java.lang.Thread.NORM_PRIORITY - 1) =
+            java.lang.Thread(body, "CodeView").apply {
+                isDaemon = true
+                this.priority = priority
+            }
+
     /**
      * Perform async operation.
      *
      * @param body Operation body
      */
     fun async(body: () -> Unit) {
-        Executors.newSingleThreadExecutor().submit(body)
+        asyncExecutor.submit(body)
+    }
+
+    /**
+     * Perform async operation after operations submitted before (in order).
+     *
+     * @param body Operation body
+     */
+    fun serial(body: () -> Unit) {
+        serialExecutor.submit(body)
+    }
+
+    /**
+     * Perform async operation with the lowest priority, after operations
+     * submitted before (so it doesn't slow down shown content).
+     *
+     * @param body Operation body
+     */
+    fun idle(body: () -> Unit) {
+        idleExecutor.submit(body)
     }
 
     /**
@@ -1,9 +1,13 @@
 package io.github.kbiakov.codeview.adapters
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.graphics.Typeface
+import android.support.v4.text.PrecomputedTextCompat
+import android.support.v4.widget.TextViewCompat
+import android.support.v7.util.DiffUtil
+import android.support.v7.util.ListUpdateCallback
 import android.support.v7.widget.RecyclerView
+import android.text.Spanned
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
@@ -11,13 +15,24 @@ import android.widget.LinearLayout
 import android.widget.TextView
 import io.github.kbiakov.codeview.*
 import io.github.kbiakov.codeview.Thread.async
+import io.github.kbiakov.codeview.Thread.serial
 import io.github.kbiakov.codeview.Thread.ui
 import io.github.kbiakov.codeview.adapters.AbstractCodeAdapter.ViewHolderType.Companion.BordersCount
 import io.github.kbiakov.codeview.adapters.AbstractCodeAdapter.ViewHolderType.Companion.LineStartIdx
 import io.github.kbiakov.codeview.classifier.CodeClassifier
 import io.github.kbiakov.codeview.classifier.CodeProcessor
 import io.github.kbiakov.codeview.highlight.*
+import io.github.kbiakov.codeview.highlight.CodeHighlighter.toHighlightedLines
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns
+import io.github.kbiakov.codeview.highlight.parser.IntStore
+import io.github.kbiakov.codeview.highlight.payload.CodePayload
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerCheckpoints
+import io.github.kbiakov.codeview.source.CodeSource
+import io.github.kbiakov.codeview.source.asLines
+import java.io.IOException
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * @class AbstractCodeAdapter
@@ -32,10 +47,93 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
     protected var lines: List<String> = ArrayList()
     protected var droppedLines: List<String>? = null
 
+    /**
+     * Lines of code content as they're shown (not highlighted) to compare
+     * them with lines of new code, null for code source & followed content.
+     */
+    private var plainLines: List<String>? = null
+
+    /**
+     * Highlighted lines kept for unchanged lines of new code content till
+     * it's highlighted (see [diffLines]).
+     */
+    private var carried: CarriedLines? = null
+
+    /**
+     * Decoration runs which lines of code content are highlighted from,
+     * they're closed when lines are replaced (see [replaceRuns]).
+     */
+    private var runs: DecorationRuns? = null
+
     internal var options: Options
 
     private var footerEntities: HashMap<Int, List<T>> = HashMap()
 
+    /**
+     * Footer views of recycled rows by footer type, they're bound again
+     * instead of being created.
+     */
+    private val footerPool: HashMap<Int, ArrayList<View>> = HashMap()
+
+    /**
+     * Generation of content, it's changed when code is replaced, so
+     * highlighting of previous code is cancelled.
+     */
+    private val generation = AtomicInteger()
+    private var shownGeneration = 0
+
+    /**
+     * Lines are highlighted (options keep source code).
+     */
+    private var isHighlighted = false
+
+    /**
+     * Shortcut listing is expanded (or it's expanding now).
+     */
+    private var isExpanded = false
+
+    /**
+     * Highlighting of dropped lines, it's done only when listing is expanded.
+     */
+    private var highlightDropped: (() -> List<String>)? = null
+
+    private var lineSpans = LineSpans(0)
+
+    /**
+     * Language of code source, restart line of each block of its lines &
+     * blocks which are highlighted now.
+     */
+    private var sourceLanguage: String? = null
+    private var sourceRestartLines: IntArray? = null
+    private val pendingBlocks = HashSet<Int>()
+
+    /**
+     * Lines of followed content (when code is appended), text appended
+     * while previous text is highlighted & incomplete last line. Appended
+     * text is kept for content of some generation, it's changed when lines
+     * are replaced (see [resetTail]).
+     */
+    private var tail: TailLines? = null
+    private val tailBuffer = StringBuilder()
+    private var tailPartialLine = ""
+    private var tailLanguage: String? = null
+    @Volatile
+    private var tailGeneration = 0
+
+    /**
+     * Last appended lines from a line where lexing can be restarted, with
+     * their highlighted lines. They're lexed again with appended text, so
+     * tokens which are not complete yet (e.g. block comment) are recolored.
+     */
+    private var tailText: String? = null
+    private var tailHighlighted: List<String> = emptyList()
+
+    /**
+     * Text metrics of line content views, to measure text in background.
+     */
+    @Volatile
+    private var textParams: PrecomputedTextCompat.Params? = null
+
     constructor(context: Context) {
         this.context = context
         this.options = Options(context)
@@ -59,14 +157,92 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
      * only necessary lines & the rest are dropped (and stores in named variable).
      */
     internal fun prepareCodeLines() {
-        extractLines(options.code).apply {
-            if (!options.shortcut || size <= options.maxLines) // limit is not reached, show full
-                lines = this
-            else slice(options.maxLines).let { (linesToShow, dropped) ->
-                lines = linesToShow + options.shortcutNote.toUpperCase()
-                droppedLines = dropped
+        resetTail()
+        replaceRuns(null)
+        carried = null
+
+        options.source?.let { source ->
+            lines = source.asLines()
+            plainLines = null
+            droppedLines = null
+            lineSpans = LineSpans(lines.size, sourceCachedLines())
+            maxColumns = 0
+            if (source.lineCount > 0)
+                countColumns { maxColumns(source.line(source.longestLine())) }
+            return
+        }
+
+        val code = options.code
+        codeLines(code).let { (linesToShow, dropped) ->
+            lines = linesToShow
+            plainLines = linesToShow
+            droppedLines = dropped
+            lineSpans = LineSpans(lines.size, options.cachedLines)
+            maxColumns = 0
+            countColumns { if (dropped == null) maxColumns(code) else maxColumns(linesToShow) }
+        }
+    }
+
+    /**
+     * Count columns of the longest line in background, they're set if
+     * lines are not replaced till then.
+     *
+     * @param count Count columns of shown lines
+     * @param merge Merge counted columns with current ones
+     */
+    private fun countColumns(count: () -> Int, merge: (Int) -> Int = { it }) {
+        val shown = lines
+        async {
+            val columns = count()
+            ui { if (lines === shown) maxColumns = merge(columns) }
+        }
+    }
+
+    /**
+     * Split code content by lines to show & dropped lines. Both are ranges
+     * of the same lines index, lines are not copied.
+     *
+     * @param code Code content
+     * @return Lines to show & dropped lines (null if listing is shown full)
+     */
+    private fun codeLines(code: String): Pair<List<String>, List<String>?> =
+            extractLines(code).run {
+                if (!options.shortcut || isExpanded || size <= options.maxLines) // limit is not reached, show full
+                    Pair(this, null)
+                else slice(options.maxLines).let { (linesToShow, dropped) ->
+                    Pair(linesToShow.concat(listOf(options.shortcutNote.toUpperCase())), dropped)
+                }
             }
+
+    /**
+     * Count columns of the longest line (monospace font), tabs are expanded
+     * to next tab stop & wide characters take two columns. So it's upper
+     * bound of text width in columns.
+     *
+     * @param lines Code lines (not highlighted)
+     * @return Max columns
+     */
+    private fun maxColumns(lines: List<String>) = lines.fold(0) { max, line ->
+        maxOf(max, maxColumns(line))
+    }
+
+    /**
+     * Count columns of the longest line of text (see above), lines are not
+     * cut from text.
+     *
+     * @param text Code content (not highlighted)
+     * @return Max columns
+     */
+    private fun maxColumns(text: CharSequence): Int {
+        var max = 0
+        var columns = 0
+        for (c in text) columns = when {
+            c == '\n' -> { max = maxOf(max, columns); 0 }
+            c == '\t' -> (columns / TabColumns + 1) * TabColumns
+            c >= WideCharStart -> columns + 2
+            else -> columns + 1
         }
+        return maxOf(max, columns)
     }
 
     // - Adapter interface
@@ -76,19 +252,251 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
      */
     internal fun updateCode(newCode: String) {
         options.code = newCode
-        prepareCodeLines()
-        notifyDataSetChanged()
+        options.source = null
+        if (options.payload?.code != newCode) options.payload = null
+        val generation = cancelHighlighting()
+        async {
+            ui(diffLines(newCode, generation))
+        }
     }
 
     /**
      * Update code with new Highlighter.
      */
     internal fun updateCode(newOptions: Options) {
+        val isRestyled = options.theme !== newOptions.theme ||
+                options.font !== newOptions.font ||
+                options.format != newOptions.format
         options = newOptions
+        val generation = cancelHighlighting()
+        async {
+            val update = diffLines(newOptions.code, generation)
+            ui {
+                update()
+                if (isRestyled) notifyItemRangeChanged(0, itemCount)
+            }
+        }
+    }
+
+    /**
+     * Update code source, its lines are highlighted when they're shown
+     * (after [highlight]).
+     *
+     * @param source Code source
+     */
+    internal fun updateSource(source: CodeSource) {
+        options.source = source
+        cancelHighlighting()
+        isHighlighted = false
         prepareCodeLines()
         notifyDataSetChanged()
     }
 
+    /**
+     * Append code to the end (follow live log), only appended text is
+     * highlighted. Lines are shown when they're complete (with line break),
+     * appended text is lexed with the last lines from a restart line (see
+     * [LexerCheckpoints.getRestartLine]), so only lines of incomplete tokens
+     * are highlighted again. Content of lines is prepared once, so it's not
+     * recolored by new theme.
+     *
+     * @param code Code to append
+     * @param onAppend Called with update of lines on UI-thread
+     */
+    internal fun appendCode(code: String, onAppend: (() -> Unit) -> Unit = { it() }) {
+        val isScheduled = synchronized(tailBuffer) {
+            tailBuffer.append(code)
+            tailBuffer.length > code.length
+        }
+        if (!isScheduled)
+            serial { appendLines(onAppend) }
+    }
+
+    /**
+     * Highlight text appended till now (in background) & append its lines.
+     * Lines from restart line are kept to be lexed again, but not more
+     * than [MaxTailRestartLines] (or max tail lines): token which isn't
+     * closed for long is not lexed again & again, it may be colored wrong.
+     *
+     * @param onAppend Called with update of lines on UI-thread
+     */
+    private fun appendLines(onAppend: (() -> Unit) -> Unit) {
+        val (text, generation) = synchronized(tailBuffer) {
+            Pair(tailPartialLine + tailBuffer.toString().apply { tailBuffer.setLength(0) }, tailGeneration)
+        }
+        val lineEnd = text.lastIndexOf('\n')
+        if (lineEnd == -1) {
+            keepTail(generation) { tailPartialLine = text }
+            return
+        }
+
+        val code = text.substring(0, lineEnd)
+        val language = options.language ?: tailLanguage ?: classify(code)
+        val newLines = extractLines(code)
+        val keptLines = tailHighlighted
+        val source = tailText?.let { "$it\n$code" } ?: code
+        val checkpoints = LexerCheckpoints(1)
+        val highlighted = extractLines(CodeHighlighter.highlight(language, source, options.theme,
+                options.budget, checkpoints)).take(keptLines.size + newLines.size)
+
+        // lexing is cut by budget, the rest is not lexed again
+        val lastLine = highlighted.lastIndex
+        val maxKept = if (options.tailLines == 0) MaxTailRestartLines else minOf(options.tailLines, MaxTailRestartLines)
+        val restartLine = if (checkpoints.lastLine < lastLine) lastLine
+        else maxOf(checkpoints.getRestartLine(source, lastLine), lastLine + 1 - maxKept)
+
+        // lines may be replaced while text was highlighted
+        val isKept = keepTail(generation) {
+            tailPartialLine = text.substring(lineEnd + 1)
+            tailLanguage = language
+            tailText = source.substring(checkpoints.getLineStart(source, restartLine))
+            tailHighlighted = highlighted.subList(restartLine, highlighted.size).toList()
+        }
+        if (!isKept)
+            return
+
+        // kept lines which are colored differently now, by offset from the end
+        val recolored = keptLines.indices.filter { keptLines[it] != highlighted[it] }
+                .map { it - keptLines.size to html(highlighted[it]) }
+        val content = highlighted.subList(keptLines.size, highlighted.size).map { html(it) }
+
+        ui {
+            if (tailGeneration == generation) onAppend {
+                val isFollowed = tail != null
+                val followed = tail ?: startTail()
+                val oldCount = followed.size
+
+                // lines of other content are not recolored
+                if (isFollowed) recolored.forEach { (offset, line) ->
+                    val pos = oldCount + offset
+                    if (pos >= 0) {
+                        followed.setContent(pos, line)
+                        notifyItemChanged(LineStartIdx + pos)
+                    }
+                }
+                val dropped = minOf(oldCount, followed.append(newLines, content))
+                val inserted = followed.size - (oldCount - dropped)
+
+                if (dropped > 0)
+                    notifyItemRangeRemoved(LineStartIdx, dropped)
+                notifyItemRangeInserted(LineStartIdx + oldCount - dropped, inserted)
+                if (dropped > 0) // line numbers are shifted
+                    notifyItemRangeChanged(LineStartIdx, oldCount - dropped)
+            }
+        }
+    }
+
+    /**
+     * Keep state of appended text if lines are not replaced since it was
+     * taken from buffer.
+     *
+     * @param generation Generation of appended text
+     * @param body Update of state
+     * @return Is state updated
+     */
+    private inline fun keepTail(generation: Int, body: () -> Unit) = synchronized(tailBuffer) {
+        if (tailGeneration == generation) body()
+        tailGeneration == generation
+    }
+
+    /**
+     * Drop followed lines & appended text kept for them, when lines are
+     * replaced (so text appended to new lines is not joined with previous
+     * partial line or lexed with previous lines & their language).
+     */
+    private fun resetTail() {
+        tail = null
+        synchronized(tailBuffer) {
+            tailGeneration++
+            tailBuffer.setLength(0)
+            tailPartialLine = ""
+            tailLanguage = null
+            tailText = null
+            tailHighlighted = emptyList()
+        }
+    }
+
+    /**
+     * Follow content, lines of code become the first lines of followed
+     * ones (lines of code source are not kept).
+     *
+     * @return Followed lines
+     */
+    private fun startTail(): TailLines {
+        val hasCode = options.source == null && options.code.isNotEmpty()
+        val count = if (droppedLines != null) lines.lastIndex else lines.size
+        val texts = if (hasCode) lines.subList(0, count).concat(droppedLines ?: emptyList()) else emptyList()
+        val contents = texts.indices.map { if (it < count) lineContent(it) else texts[it] }
+        val oldCount = lines.size
+
+        options.source = null
+        plainLines = null
+        carried = null
+        droppedLines = null
+        highlightDropped = null
+        cancelHighlighting()
+        // blocks of code source which are highlighted now are not shown
+        lineSpans = LineSpans(0)
+
+        return TailLines(options.tailLines).apply {
+            append(texts, contents)
+            tail = this
+            lines = this
+            replaceRuns(null)
+            notifyItemRangeRemoved(LineStartIdx, oldCount)
+            notifyItemRangeInserted(LineStartIdx, size)
+        }
+    }
+
+    /**
+     * Show all lines of shortcut listing in place of note, shown lines are
+     * not prepared again. If listing is highlighted, dropped lines are
+     * highlighted now (in background) & inserted after that.
+     */
+    fun expand() {
+        val dropped = droppedLines
+        if (dropped == null || isExpanded)
+            return
+
+        isExpanded = true
+        val highlightDropped = highlightDropped
+        if (isHighlighted && highlightDropped != null)
+            async {
+                val highlighted = highlightDropped()
+                ui { insertDropped(dropped, highlighted) }
+            }
+        else
+            insertDropped(dropped, dropped)
+    }
+
+    /**
+     * Replace note line by dropped lines.
+     *
+     * @param dropped Dropped lines (not highlighted)
+     * @param newLines Dropped lines to show
+     */
+    private fun insertDropped(dropped: List<String>, newLines: List<String>) {
+        // listing may be updated while dropped lines were highlighted
+        if (droppedLines !== dropped)
+            return
+
+        val notePos = lines.lastIndex
+        lines = lines.subList(0, notePos).concat(newLines)
+        plainLines = plainLines?.let { it.subList(0, notePos).concat(dropped) }
+        carried = null
+        droppedLines = null
+        highlightDropped = null
+        lineSpans = LineSpans(lines.size, options.cachedLines)
+        countColumns({ maxColumns(dropped) }) { maxOf(maxColumns, it) }
+
+        // shortened numbers are shown full now
+        if (notePos >= MaxShortcutLines)
+            notifyItemRangeChanged(MaxShortcutLines + LineStartIdx, notePos + 1 - MaxShortcutLines)
+        else
+            notifyItemChanged(notePos + LineStartIdx)
+        notifyItemRangeInserted(notePos + 1 + LineStartIdx, newLines.size - 1)
+    }
+
     /**
      * Add footer entity for code line.
      *
@@ -98,21 +506,103 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
     fun addFooterEntity(num: Int, entity: T) {
         val notes = footerEntities[num] ?: ArrayList()
         footerEntities.put(num, notes + entity)
-        notifyDataSetChanged() // TODO: replace with notifyItemInserted()
+        notifyItemChanged(num + LineStartIdx)
     }
 
     /**
-     * Highlight code content.
+     * Highlight code content. Highlighted lines are shown when update
+     * passed to callback is called, it does nothing if content is replaced
+     * (or highlighted again) before that.
      *
-     * @param onReady Callback when content is highlighted
+     * @param onReady Callback on UI-thread with update of rows
      */
-    internal fun highlight(onReady: () -> Unit) {
+    internal fun highlight(onReady: (update: () -> Unit) -> Unit) {
+        val job = HighlightJob(generation.incrementAndGet())
         async {
-            val language = options.language ?: classifyContent()
-            highlighting(language, onReady)
+            if (job.isActual) {
+                val language = options.language ?: classifyContent()
+                highlighting(language, job, onReady)
+            }
         }
     }
 
+    /**
+     * Show code content highlighted before, rows are changed now. It's
+     * highlighted by payload (with current theme) if payload has the same
+     * code, or it's taken from cache (see [HighlightPrefetcher]) if it's
+     * kept with the same language & theme. Code source & followed content
+     * are not highlighted before, cached content has no minimap.
+     *
+     * @return Is highlighted content shown
+     */
+    internal fun highlightCached(): Boolean {
+        if (options.source != null || tail != null)
+            return false
+
+        val code = options.code
+        val payload = options.payload
+        if (payload != null && payload.code == code) {
+            val minimap = if (options.minimap)
+                Minimap.build(code, payload.runs.toParseResults(0, code.length), options.theme, this.minimap)
+            else null
+            showHighlighted(payload.toHighlightedLines(options.theme), null, minimap)
+            return true
+        }
+        if (options.minimap)
+            return false
+
+        val cached = HighlightCache[CodeSnippet(code, options.language, options.theme)] ?: return false
+        showHighlighted(extractLines(cached.code), cached.spans, null)
+        return true
+    }
+
+    /**
+     * Show highlighted lines of current code content.
+     *
+     * @param highlighted Highlighted lines
+     * @param spans Lines ready to show (if they're prepared)
+     * @param minimap Minimap of content
+     */
+    private fun showHighlighted(highlighted: List<String>, spans: List<Spanned>?, minimap: Minimap?) {
+        val code = options.code
+        val (plainLines, dropped) = codeLines(code)
+        val maxLines = minOf(options.maxLines, highlighted.size)
+        val newLines = if (dropped == null) highlighted
+        else highlighted.subList(0, maxLines).concat(listOf(options.shortcutNote.toUpperCase()))
+
+        shownGeneration = cancelHighlighting()
+        isHighlighted = true
+        resetTail()
+        replaceRuns(null)
+        lines = newLines
+        this.plainLines = plainLines
+        carried = null
+        droppedLines = dropped
+        highlightDropped = if (dropped != null) {
+            { highlighted.subList(maxLines, minOf(highlighted.size, maxLines + dropped.size)) }
+        } else null
+        if (dropped != null) isExpanded = false
+        lineSpans = LineSpans(newLines.size, options.cachedLines).apply {
+            if (spans != null) {
+                val shown = minOf(spans.size, if (dropped == null) size else maxLines)
+                // in bounded mode only first lines are shown on start
+                val count = if (options.cachedLines == 0) shown else minOf(shown, options.cachedLines)
+                for (pos in 0 until count)
+                    put(pos, spans[pos])
+            }
+        }
+        this.minimap = minimap
+        notifyDataSetChanged()
+        countColumns { if (dropped == null) maxColumns(code) else maxColumns(plainLines) }
+    }
+
+    /**
+     * Cancel highlighting of current content (if it's not finished).
+     *
+     * @return New generation of content
+     */
+    internal fun cancelHighlighting() = generation.incrementAndGet()
+
     /**
      * Mapper from entity to footer view.
      *
@@ -123,6 +613,26 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
      */
     abstract fun createFooter(context: Context, entity: T, isFirst: Boolean): View
 
+    /**
+     * Bind footer view of recycled row to another entity of the same type.
+     * By default footer views are not bound again & always created.
+     *
+     * @param view Footer view created for entity of the same type
+     * @param entity Entity to bind view to
+     * @param isFirst Is first footer view
+     * @return Is footer view bound
+     */
+    open fun bindFooter(view: View, entity: T, isFirst: Boolean) = false
+
+    /**
+     * Type of footer view for entity, only views of the same type are
+     * bound to each other.
+     *
+     * @param entity Footer entity
+     * @return Footer type
+     */
+    open fun getFooterType(entity: T) = 0
+
     // - Helpers (for accessors)
 
     /**
@@ -131,10 +641,24 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
      * @return Classified language
      */
     private fun classifyContent(): String {
+        val code = options.source?.let {
+            it.text(0, minOf(it.lineCount, ClassifiedSourceLines))
+        } ?: options.code
+
+        return classify(code)
+    }
+
+    /**
+     * Classify code.
+     *
+     * @param code Code content
+     * @return Classified language
+     */
+    private fun classify(code: String): String {
         val processor = CodeProcessor.getInstance(context)
 
         return if (processor.isTrained)
-            processor.classify(options.code).get()
+            processor.classify(code).get()
         else
             CodeClassifier.DEFAULT_LANGUAGE
     }
@@ -145,21 +669,373 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
      * @param language Language to highlight
      * @param onReady Callback
      */
-    private fun highlighting(language: String, onReady: () -> Unit) {
-        // TODO: highlight by 10 lines
-        val code = CodeHighlighter.highlight(language, options.code, options.theme)
-        updateContent(code, onReady)
+    private fun highlighting(language: String, job: HighlightJob, onReady: (() -> Unit) -> Unit) {
+        options.source?.let {
+            updateSource(it, language, job, onReady)
+            return
+        }
+
+        val source = options.code
+        val (plain, dropped) = codeLines(source)
+
+        if (dropped == null) {
+            val runs = parseRuns(language, source, job.budget)
+            if (!job.isActual) {
+                runs.close()
+                return
+            }
+
+            // lines are highlighted from runs when they're shown
+            val minimap = if (options.minimap)
+                Minimap.build(source, runs.asParseResults(), options.theme, this.minimap)
+            else null
+            updateContent(source, plain, Pair(runs.toHighlightedLines(source, options.theme), null),
+                    runs, minimap, null, job, onReady)
+        } else {
+            // shortcut listing: only shown lines are highlighted, the rest when expanded
+            val maxLines = options.maxLines
+            val theme = options.theme
+            val budget = options.budget
+            val checkpoints = LexerCheckpoints()
+            val code = CodeHighlighter.highlightLines(language, source, theme, checkpoints, 0, maxLines, job.budget)
+            if (!job.isActual)
+                return
+
+            val linesToShow = extractLines(code).take(maxLines) + options.shortcutNote.toUpperCase()
+            val highlightDropped = {
+                val rest = CodeHighlighter.highlightLines(language, source, theme,
+                        checkpoints, maxLines, maxLines + dropped.size, budget)
+                extractLines(rest).let { it.subList(0, minOf(it.size, dropped.size)) }
+            }
+            updateContent(source, plain, Pair(linesToShow, dropped), null, null, highlightDropped, job, onReady)
+        }
     }
 
     /**
-     * Return control to UI-thread when highlighted content is ready.
-     * @param onUpdated Control callback
+     * Parse code content into decoration runs, which are kept instead of
+     * highlighted content (in store of options, on heap if mapped file
+     * can't be created). Content is lexed on multiple cores, large content
+     * by parts (syntax units of one part are kept till they're added to
+     * runs).
+     *
+     * @param language Language to highlight
+     * @param source Code content
+     * @param budget Lexing limits
+     * @return Decoration runs
      */
-    private fun updateContent(code: String, onUpdated: () -> Unit) {
-        options.code = code
-        options.isHighlighted = true
-        prepareCodeLines()
-        ui(onUpdated)
+    private fun parseRuns(language: String, source: String, budget: LexerBudget): DecorationRuns {
+        val store = try {
+            options.runsStore()
+        } catch (e: IOException) {
+            IntStore.onHeap()
+        }
+        return CodeHighlighter.parseRunsParallel(language, source, store, budget)
+    }
+
+    /**
+     * Close decoration runs of replaced lines.
+     *
+     * @param newRuns Runs of new lines, null if they're not highlighted from runs
+     */
+    private fun replaceRuns(newRuns: DecorationRuns?) {
+        if (runs !== newRuns)
+            runs?.close()
+        runs = newRuns
+    }
+
+    /**
+     * Return control to UI-thread when highlighted content is ready. Rows
+     * of lines highlighted the same as lines kept by [diffLines] are not
+     * changed.
+     * @param code Code content
+     * @param plain Lines of code content to show (not highlighted)
+     * @param content Highlighted lines to show & dropped lines
+     * @param runs Decoration runs which lines are highlighted from
+     * @param minimap Minimap of content
+     * @param highlightDropped Highlighting of dropped lines
+     * @param job Highlighting job
+     * @param onUpdated Control callback with update of rows
+     */
+    private fun updateContent(
+            code: String,
+            plain: List<String>,
+            content: Pair<List<String>, List<String>?>,
+            runs: DecorationRuns?,
+            minimap: Minimap?,
+            highlightDropped: (() -> List<String>)?,
+            job: HighlightJob,
+            onUpdated: (() -> Unit) -> Unit) {
+        val (newLines, dropped) = content
+        if (!job.isActual) {
+            runs?.close()
+            return
+        }
+
+        val params = textParams
+        val spans = LineSpans(newLines.size, options.cachedLines).apply {
+            // lines of the first screen are measured here instead of UI-thread
+            // (when text metrics are known), the rest when they're shown
+            if (params != null) {
+                val count = if (options.cachedLines == 0) minOf(size, PreparedLines)
+                else minOf(size, PreparedLines, options.cachedLines)
+                for (pos in 0 until count) {
+                    // code may be replaced while lines are prepared
+                    if (!job.isActual) {
+                        runs?.close()
+                        return
+                    }
+                    put(pos, PrecomputedTextCompat.create(html(newLines[pos]), params))
+                }
+            }
+        }
+        if (!job.isActual) {
+            runs?.close()
+            return
+        }
+
+        // lines may be highlighted from runs when they're accessed, so lines
+        // carried by diff are compared here (if diff is applied already)
+        val carriedNow = carried?.takeIf { it.code == code && it.lines.size == newLines.size }
+        val changed = carriedNow?.lines?.let { kept ->
+            BitSet(kept.size).apply { kept.forEachIndexed { pos, line -> if (line == null || line != newLines[pos]) set(pos) } }
+        }
+
+        val update: () -> Unit = {
+            // code may be replaced while update is pending
+            if (job.isActual) {
+                val isSameSize = lines.size == newLines.size
+                val kept = carried?.takeIf { it.code == code && it.lines.size == newLines.size }
+                shownGeneration = job.generation
+                isHighlighted = true
+                lines = newLines
+                plainLines = plain
+                carried = null
+                droppedLines = dropped
+                this.highlightDropped = highlightDropped
+                if (dropped != null) isExpanded = false
+                lineSpans = spans
+                this.minimap = minimap
+
+                when {
+                    kept != null && kept === carriedNow -> notifyChangedLines(newLines.size) { changed!![it] }
+                    kept != null -> notifyChangedLines(newLines.size) { kept.lines[it] != newLines[it] }
+                    isSameSize -> notifyItemRangeChanged(LineStartIdx, newLines.size)
+                    else -> notifyDataSetChanged()
+                }
+                replaceRuns(runs)
+            } else {
+                runs?.close()
+            }
+        }
+        ui { onUpdated(update) }
+    }
+
+    /**
+     * Return control to UI-thread when language of code source is known &
+     * restart lines of its blocks are found, lines are highlighted by blocks
+     * when they're shown.
+     *
+     * @param source Code source
+     * @param language Language of code source
+     * @param job Highlighting job
+     * @param onUpdated Control callback with update of rows
+     */
+    private fun updateSource(source: CodeSource, language: String, job: HighlightJob, onUpdated: (() -> Unit) -> Unit) {
+        val restartLines = findRestartLines(source, language, job) ?: return
+        if (!job.isActual)
+            return
+
+        val update: () -> Unit = {
+            if (job.isActual && options.source === source) {
+                shownGeneration = job.generation
+                isHighlighted = true
+                sourceLanguage = language
+                sourceRestartLines = restartLines
+                lineSpans = LineSpans(lines.size, sourceCachedLines())
+                notifyItemRangeChanged(LineStartIdx, lines.size)
+            }
+        }
+        ui { onUpdated(update) }
+    }
+
+    /**
+     * Find the line to start lexing of each block of code source lines from
+     * (see [LexerCheckpoints.getRestartLine]), so multi-line comment or
+     * string started before block is colored as in whole source. Source is
+     * lexed once by blocks, each with the last lines of previous one from
+     * their restart line.
+     *
+     * @param source Code source
+     * @param language Language of code source
+     * @param job Highlighting job
+     * @return Restart line of each block, null when job is cancelled
+     */
+    private fun findRestartLines(source: CodeSource, language: String, job: HighlightJob): IntArray? {
+        val restartLines = IntArray((source.lineCount + SourceBlockLines - 1) / SourceBlockLines)
+        var windowLine = 0
+
+        for (block in 1 until restartLines.size) {
+            val from = block * SourceBlockLines
+            val to = minOf(source.lineCount, from + SourceBlockLines)
+            val text = source.text(windowLine, to)
+            val checkpoints = LexerCheckpoints(1)
+            CodeHighlighter.parser.parse(language, text, job.budget, checkpoints)
+            if (!job.isActual)
+                return null
+
+            val lastLine = to - 1 - windowLine
+            if (checkpoints.lastLine < lastLine) { // lexing is cut by budget
+                restartLines[block] = from
+                windowLine = to - 1
+            } else {
+                restartLines[block] = windowLine + checkpoints.getRestartLine(text, from - windowLine)
+                // token which isn't closed for long is not lexed again & again
+                windowLine = maxOf(windowLine + checkpoints.getRestartLine(text, lastLine), to - MaxRestartLines)
+            }
+        }
+        return restartLines
+    }
+
+    /**
+     * Highlight block of code source lines (in background), its rows are
+     * changed when it's ready. Block is lexed from its restart line, so
+     * tokens started before it are colored as in whole source (lexing ends
+     * with block, so embedded code closed after it may be colored wrong).
+     *
+     * @param block Block number
+     */
+    private fun highlightBlock(block: Int) {
+        val source = options.source ?: return
+        val language = sourceLanguage ?: return
+        if (!pendingBlocks.add(block))
+            return
+
+        val spans = lineSpans
+        val theme = options.theme
+        val budget = options.budget
+        val from = block * SourceBlockLines
+        val to = minOf(source.lineCount, from + SourceBlockLines)
+        val restartLine = sourceRestartLines?.getOrNull(block) ?: from
+
+        async {
+            val code = CodeHighlighter.highlight(language, source.text(restartLine, to), theme, budget)
+            val content = extractLines(code).drop(from - restartLine).take(to - from).map { html(it) }
+
+            ui {
+                pendingBlocks.remove(block)
+                // lines may be replaced while block was highlighted
+                if (lineSpans === spans) {
+                    content.forEachIndexed { idx, line -> spans.put(from + idx, line) }
+                    notifyItemRangeChanged(from + LineStartIdx, content.size)
+                }
+            }
+        }
+    }
+
+    /**
+     * Lines of code source are kept in bounded mode, some blocks at least.
+     */
+    private fun sourceCachedLines() =
+            if (options.cachedLines == 0) SourceCachedLines
+            else maxOf(options.cachedLines, SourceBlockLines * 2)
+
+    /**
+     * Calculate difference between shown lines & lines of new code content
+     * (in background), plain lines are compared. Lines are replaced by
+     * returned update on UI-thread, so only changed rows are notified.
+     * Unchanged lines keep their highlighted content till new content is
+     * highlighted. All rows are changed if there is no code content shown
+     * or contents are too large to compare.
+     *
+     * @param code Code content
+     * @param generation Generation of code content
+     * @return Update of lines
+     */
+    private fun diffLines(code: String, generation: Int): () -> Unit {
+        if (options.source != null)
+            return {
+                prepareCodeLines()
+                notifyDataSetChanged()
+            }
+
+        val oldLines = lines
+        val oldPlain = plainLines
+        val (newLines, dropped) = codeLines(code)
+        val columns = if (dropped == null) maxColumns(code) else maxColumns(newLines)
+        val diff = if (oldPlain != null && oldPlain.size + newLines.size <= MaxDiffLines)
+            DiffUtil.calculateDiff(LinesDiff(oldPlain, newLines), false)
+        else null
+
+        return update@{
+            // newer content may be highlighted while difference was calculated
+            if (shownGeneration > generation)
+                return@update
+
+            // lines may be replaced while difference was calculated
+            val isActual = lines === oldLines
+            val wasHighlighted = isHighlighted
+            val oldSpans = lineSpans
+            isHighlighted = false
+            resetTail()
+            lines = newLines
+            plainLines = newLines
+            carried = null
+            droppedLines = dropped
+            highlightDropped = null
+            if (dropped != null) isExpanded = false
+            lineSpans = LineSpans(newLines.size, options.cachedLines)
+            maxColumns = columns
+
+            if (isActual && diff != null) {
+                if (wasHighlighted)
+                    carryHighlighted(code, diff, oldLines, oldSpans)
+                diff.dispatchUpdatesTo(RowsUpdateCallback())
+            } else {
+                notifyDataSetChanged()
+            }
+            // highlighted lines are carried already
+            replaceRuns(null)
+        }
+    }
+
+    /**
+     * Keep highlighted content of lines which are not changed by new code
+     * content, they're shown till it's highlighted.
+     *
+     * @param code New code content
+     * @param diff Difference of plain lines
+     * @param oldLines Highlighted lines
+     * @param oldSpans Content of highlighted lines
+     */
+    private fun carryHighlighted(code: String, diff: DiffUtil.DiffResult, oldLines: List<String>, oldSpans: LineSpans) {
+        val kept = arrayOfNulls<String>(lines.size)
+        for (pos in kept.indices) {
+            val oldPos = diff.convertNewPositionToOld(pos)
+            if (oldPos == DiffUtil.DiffResult.NO_POSITION)
+                continue
+            kept[pos] = oldLines[oldPos]
+            oldSpans[oldPos]?.let { lineSpans.put(pos, it) }
+        }
+        carried = CarriedLines(code, kept.asList())
+    }
+
+    /**
+     * Notify rows of changed lines, by ranges of adjacent lines.
+     *
+     * @param count Number of lines
+     * @param isChanged Is line changed
+     */
+    private fun notifyChangedLines(count: Int, isChanged: (Int) -> Boolean) {
+        var start = -1
+        for (pos in 0..count) {
+            val changed = pos < count && isChanged(pos)
+            if (changed && start == -1) {
+                start = pos
+            } else if (!changed && start != -1) {
+                notifyItemRangeChanged(start + LineStartIdx, pos - start)
+                start = -1
+            }
+        }
     }
 
     // - View holder callbacks
@@ -167,29 +1043,19 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
         val inflater = LayoutInflater.from(parent.context)
         val lineView = inflater.inflate(R.layout.item_code_line, parent, false)
-        lineView.setBackgroundColor(options.theme.bgContent.color())
-
-        val tvLineNum = lineView.findViewById(R.id.tv_line_num) as TextView
-        tvLineNum.typeface = options.font
-        tvLineNum.setTextColor(options.theme.numColor.color())
-        tvLineNum.setBackgroundColor(options.theme.bgNum.color())
-
-        val tvLineContent = lineView.findViewById(R.id.tv_line_content) as TextView
-        tvLineContent.typeface = options.font
-
         val isLine = viewType == ViewHolderType.Line.viewType
 
-        options.format.apply {
-            val height = if (isLine) lineHeight else borderHeight
-            lineView.layoutParams.height = dpToPx(context, height)
+        return (if (isLine) LineViewHolder(lineView) else BorderViewHolder(lineView)).apply {
+            applyStyle(this)
         }
-        return if (isLine)
-            LineViewHolder(lineView).apply { setIsRecyclable(false) }
-        else
-            BorderViewHolder(lineView)
     }
 
     override fun onBindViewHolder(holder: ViewHolder, pos: Int) {
+        holder.apply {
+            if (theme !== options.theme || font !== options.font || format != options.format)
+                applyStyle(this)
+        }
+
         if (holder is LineViewHolder) {
             val num = pos - LineStartIdx
             holder.mItem = lines[num]
@@ -200,59 +1066,204 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
         }
     }
 
+    override fun onViewRecycled(holder: ViewHolder) {
+        recycleFooters(holder)
+    }
+
     override fun getItemCount() = lines.size + BordersCount
 
     override fun getItemViewType(pos: Int) = ViewHolderType.get(pos, itemCount)
 
+    // - Line accessors (for view holder & canvas renderer)
+
+    internal val lineCount: Int
+        get() = lines.size
+
+    /**
+     * Overview of highlighted code (if enabled by options).
+     */
+    internal var minimap: Minimap? = null
+        private set
+
+    /**
+     * Columns of the longest line (see [maxColumns]).
+     */
+    internal var maxColumns = 0
+        private set(value) {
+            if (field == value)
+                return
+            field = value
+            columnsListener?.invoke()
+        }
+
+    /**
+     * Called when columns of the longest line are changed.
+     */
+    internal var columnsListener: (() -> Unit)? = null
+
+    /**
+     * Line number is shortened when listing is shown not full.
+     *
+     * @param pos Line number
+     * @return Is line number shortened
+     */
+    internal fun isShortcutLine(pos: Int) = options.shortcut && !isExpanded && tail == null && pos >= MaxShortcutLines
+
+    /**
+     * @param pos Line number
+     * @return Text of line number
+     */
+    internal fun lineNumber(pos: Int): String =
+            if (isShortcutLine(pos)) context.getString(R.string.dots) else "${pos + 1 + (tail?.droppedCount ?: 0)}"
+
+    /**
+     * @param pos Line number
+     * @return Line content ready to show
+     */
+    internal fun lineContent(pos: Int): CharSequence =
+            when {
+                tail != null -> tail!!.content(pos)
+                !isHighlighted -> lineSpans[pos] ?: carried?.lines?.get(pos)?.let { kept ->
+                    lineSpans.getOrPut(pos) { html(kept) }
+                } ?: lines[pos]
+                options.source != null -> lineSpans[pos] ?: lines[pos].apply {
+                    highlightBlock(pos / SourceBlockLines)
+                }
+                else -> lineSpans.getOrPut(pos) { html(lines[it]) }
+            }
+
+    /**
+     * Click on note line of shortcut listing expands it.
+     *
+     * @param pos Line number
+     */
+    internal fun onLineClicked(pos: Int) {
+        if (droppedLines != null && pos == lines.lastIndex) {
+            expand()
+            return
+        }
+        options.lineClickListener?.apply {
+            onCodeLineClicked(pos, lines[pos])
+        }
+    }
+
     // - Helpers (for view holder)
 
     private fun bindClickListener(pos: Int, holder: ViewHolder) {
         holder.itemView.setOnClickListener {
-            options.lineClickListener?.apply {
-                onCodeLineClicked(pos, lines[pos])
-            }
+            onLineClicked(pos)
         }
     }
 
-    @SuppressLint("SetTextI18n")
     private fun setupContent(pos: Int, holder: ViewHolder) {
         holder.apply {
             val fontSize = options.format.fontSize
             tvLineNum.apply {
-                if (!options.shortcut || pos < MaxShortcutLines) {
-                    text = "${pos + 1}"
-                    textSize = fontSize
-                } else {
-                    text = context.getString(R.string.dots)
-                    textSize = fontSize * Format.ShortcutScale
-                }
+                text = lineNumber(pos)
+                textSize = if (isShortcutLine(pos)) fontSize * Format.ShortcutScale else fontSize
             }
             tvLineContent.apply {
-                text = lines[pos].let { if (options.isHighlighted) html(it) else it }
-                textSize = fontSize
-                setTextColor(options.theme.noteColor.color())
+                val content = lineContent(pos)
+                if (content is PrecomputedTextCompat && content.params == textParams)
+                    TextViewCompat.setPrecomputedText(this, content)
+                else
+                    text = content
             }
         }
     }
 
+    /**
+     * Apply color theme, font & format to view holder, it's done only once
+     * while these options are not changed (holder is recycled).
+     *
+     * @param holder View holder
+     */
+    private fun applyStyle(holder: ViewHolder) {
+        holder.apply {
+            options.format.apply {
+                val height = if (holder is LineViewHolder) lineHeight else borderHeight
+                itemView.layoutParams.height = dpToPx(context, height)
+            }
+            itemView.setBackgroundColor(options.theme.bgContent.color())
+            tvLineNum.typeface = options.font
+            tvLineNum.setTextColor(options.theme.numColor.color())
+            tvLineNum.setBackgroundColor(options.theme.bgNum.color())
+            tvLineContent.typeface = options.font
+            tvLineContent.textSize = options.format.fontSize
+            tvLineContent.setTextColor(options.theme.noteColor.color())
+
+            theme = options.theme
+            font = options.font
+            format = options.format
+
+            if (holder is LineViewHolder)
+                textParams = TextViewCompat.getTextMetricsParams(tvLineContent)
+        }
+    }
+
     private fun displayFooter(pos: Int, holder: ViewHolder) {
-        val entityList = footerEntities[pos]
+        recycleFooters(holder)
+        val entityList = footerEntities[pos] ?: emptyList<T>()
 
         holder.llLineFooter.apply {
-            removeAllViews()
+            visibility = if (entityList.isNotEmpty()) View.VISIBLE else View.GONE
 
-            entityList?.apply {
-                visibility = if (isNotEmpty()) View.VISIBLE else View.GONE
+            entityList.forEachIndexed { idx, entity ->
+                val type = getFooterType(entity)
+                addView(footerView(type, entity, idx == 0))
+                holder.footerTypes.add(type)
+            }
+        }
+    }
 
-                forEachIndexed { idx, entity ->
-                    addView(createFooter(context, entity, idx == 0))
-                }
+    /**
+     * Footer view of pooled views if some of them can be bound to entity,
+     * otherwise created.
+     *
+     * @param type Footer type
+     * @param entity Footer entity
+     * @param isFirst Is first footer view
+     * @return Footer view
+     */
+    private fun footerView(type: Int, entity: T, isFirst: Boolean): View {
+        val pooled = footerPool[type]
+        if (pooled != null && pooled.isNotEmpty()) {
+            val view = pooled.removeAt(pooled.lastIndex)
+            if (bindFooter(view, entity, isFirst))
+                return view
+        }
+        return createFooter(context, entity, isFirst)
+    }
+
+    /**
+     * Move footer views of holder to pool.
+     *
+     * @param holder View holder
+     */
+    private fun recycleFooters(holder: ViewHolder) {
+        holder.llLineFooter.apply {
+            for (idx in 0 until childCount) {
+                val pooled = footerPool.getOrPut(holder.footerTypes[idx]) { ArrayList() }
+                if (pooled.size < MaxPooledFooters)
+                    pooled.add(getChildAt(idx))
             }
+            removeAllViews()
         }
+        holder.footerTypes.clear()
     }
 
     companion object {
         private const val MaxShortcutLines = 6
+        private const val TabColumns = 4
+        private const val WideCharStart = '\u1100'
+        private const val MaxPooledFooters = 32
+        private const val ClassifiedSourceLines = 200
+        private const val SourceBlockLines = 200
+        private const val SourceCachedLines = 2000
+        private const val MaxRestartLines = SourceBlockLines * 10
+        private const val MaxTailRestartLines = 500
+        private const val MaxDiffLines = 10000
+        private const val PreparedLines = 100
     }
 
     // - View holder types
@@ -275,6 +1286,66 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
         }
     }
 
+    /**
+     * Highlighting of content of some generation, it's cancelled (lexing is
+     * stopped & result is not shown) when content is replaced.
+     *
+     * @param generation Generation of content
+     */
+    private inner class HighlightJob(val generation: Int) {
+        val isActual: Boolean
+            get() = this@AbstractCodeAdapter.generation.get() == generation
+
+        val budget: LexerBudget = options.budget.cancelledBy { !isActual }
+    }
+
+    /**
+     * Highlighted lines kept for lines of code content, null for changed
+     * lines.
+     *
+     * @param code Code content
+     * @param lines Highlighted lines by line numbers of code content
+     */
+    private class CarriedLines(val code: String, val lines: List<String?>)
+
+    /**
+     * Difference of code lines. Rows of shifted lines are changed too,
+     * because line number & footer are bound by position. Lines are hashed
+     * once, because they're cut from text when accessed.
+     */
+    private class LinesDiff(
+            private val oldLines: List<String>,
+            private val newLines: List<String>) : DiffUtil.Callback() {
+
+        private val oldHashes = IntArray(oldLines.size) { oldLines[it].hashCode() }
+        private val newHashes = IntArray(newLines.size) { newLines[it].hashCode() }
+
+        override fun getOldListSize() = oldLines.size
+        override fun getNewListSize() = newLines.size
+
+        override fun areItemsTheSame(oldPos: Int, newPos: Int) =
+                oldHashes[oldPos] == newHashes[newPos] && oldLines[oldPos] == newLines[newPos]
+
+        override fun areContentsTheSame(oldPos: Int, newPos: Int) = oldPos == newPos
+    }
+
+    /**
+     * Dispatch changes of lines to rows, which are shifted by top border.
+     */
+    private inner class RowsUpdateCallback : ListUpdateCallback {
+        override fun onInserted(pos: Int, count: Int) =
+                notifyItemRangeInserted(pos + LineStartIdx, count)
+
+        override fun onRemoved(pos: Int, count: Int) =
+                notifyItemRangeRemoved(pos + LineStartIdx, count)
+
+        override fun onMoved(fromPos: Int, toPos: Int) =
+                notifyItemMoved(fromPos + LineStartIdx, toPos + LineStartIdx)
+
+        override fun onChanged(pos: Int, count: Int, payload: Any?) =
+                notifyItemRangeChanged(pos + LineStartIdx, count, payload)
+    }
+
     /**
      * View holder for code adapter.
      * Stores all views related to code line layout.
@@ -286,6 +1357,12 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
 
         var mItem: String? = null
 
+        internal var theme: ColorThemeData? = null
+        internal var font: Typeface? = null
+        internal var format: Format? = null
+
+        internal val footerTypes = ArrayList<Int>()
+
         override fun toString() = "${super.toString()} '$mItem'"
     }
 
@@ -315,6 +1392,15 @@ abstract class AbstractCodeAdapter<T> : RecyclerView.Adapter<AbstractCodeAdapter
  * @param shortcut Do you want to show shortcut of code listing?
  * @param shortcutNote When rest lines is dropped, note is shown as last string
  * @param lineClickListener Listener to code line clicks
+ * @param budget Limits of highlighting for pathological input
+ * @param cachedLines Max highlighted lines kept ready to show (recently shown), 0 means all lines
+ * @param canvasRendering Draw lines on single canvas instead of list of views (without footers)
+ * @param fastScroll Show fast-scroll strip
+ * @param minimap Show overview of code on fast-scroll strip
+ * @param source Code source to read lines from instead of code (shortcut is not applied)
+ * @param tailLines Max lines kept when code is appended, 0 means all lines
+ * @param payload Pre-highlighted code to show instead of highlighting code
+ * @param runsStore Store of decoration runs which highlighted code is kept in (see [IntStore])
  *
  * @author Kirill Biakov
  */
@@ -330,9 +1416,16 @@ data class Options(
         var shortcut: Boolean = false,
         var shortcutNote: String = context.getString(R.string.show_all),
         var maxLines: Int = 0,
-        var lineClickListener: OnCodeLineClickListener? = null) {
-
-    internal var isHighlighted: Boolean = false
+        var lineClickListener: OnCodeLineClickListener? = null,
+        var budget: LexerBudget = LexerBudget.DEFAULT,
+        var cachedLines: Int = DefaultCachedLines,
+        var canvasRendering: Boolean = false,
+        var fastScroll: Boolean = false,
+        var minimap: Boolean = false,
+        var source: CodeSource? = null,
+        var tailLines: Int = 0,
+        var payload: CodePayload? = null,
+        var runsStore: () -> IntStore = { IntStore.onHeap() }) {
 
     fun withCode(code: String) = apply { this.code = code }
     fun withCode(codeResId: Int) = apply { code = context.getString(codeResId) }
@@ -358,6 +1451,29 @@ data class Options(
     fun addCodeLineClickListener(listener: OnCodeLineClickListener) = apply { lineClickListener = listener }
     fun removeCodeLineClickListener() = apply { lineClickListener = null }
 
+    fun withBudget(budget: LexerBudget) = apply { this.budget = budget }
+    fun withoutBudget() = apply { budget = LexerBudget.UNLIMITED }
+
+    fun withCachedLines(cachedLines: Int) = apply { this.cachedLines = cachedLines }
+    fun withCanvasRendering() = apply { canvasRendering = true }
+    fun withoutCanvasRendering() = apply { canvasRendering = false }
+    fun withFastScroll() = apply { fastScroll = true }
+    fun withoutFastScroll() = apply { fastScroll = false; minimap = false }
+    fun withMinimap() = apply { fastScroll = true; minimap = true }
+    fun withoutMinimap() = apply { minimap = false }
+
+    fun withSource(source: CodeSource) = apply { this.source = source }
+
+    fun withTailLines(tailLines: Int) = apply { this.tailLines = tailLines }
+
+    fun withRunsStore(runsStore: () -> IntStore) = apply { this.runsStore = runsStore }
+
+    fun withPayload(payload: CodePayload) = apply {
+        this.payload = payload
+        code = payload.code
+        language = payload.language
+    }
+
     fun shortcut(maxLines: Int, shortcutNote: String) = apply {
         this.shortcut = true
         this.maxLines = maxLines
@@ -365,6 +1481,8 @@ data class Options(
     }
 
     companion object Default {
+        internal const val DefaultCachedLines = 500
+
         fun get(context: Context) = Options(context)
     }
 
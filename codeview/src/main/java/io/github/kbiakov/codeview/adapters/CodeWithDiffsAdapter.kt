@@ -1,6 +1,7 @@
 package io.github.kbiakov.codeview.adapters
 
 import android.content.Context
+import android.view.View
 import io.github.kbiakov.codeview.views.DiffModel
 import io.github.kbiakov.codeview.views.LineDiffView
 
@@ -27,4 +28,17 @@ open class CodeWithDiffsAdapter : AbstractCodeAdapter<DiffModel> {
      */
     override fun createFooter(context: Context, entity: DiffModel, isFirst: Boolean) =
             LineDiffView.create(context, entity)
+
+    /**
+     * Bind recycled footer view to another diff.
+     *
+     * @param view Footer view
+     * @param entity Diff model
+     * @param isFirst Is first footer
+     */
+    override fun bindFooter(view: View, entity: DiffModel, isFirst: Boolean) =
+            view is LineDiffView && view.run {
+                bind(entity)
+                true
+            }
 }
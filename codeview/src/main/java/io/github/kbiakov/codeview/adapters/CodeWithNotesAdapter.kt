@@ -1,6 +1,7 @@
 package io.github.kbiakov.codeview.adapters
 
 import android.content.Context
+import android.view.View
 import io.github.kbiakov.codeview.highlight.color
 import io.github.kbiakov.codeview.views.LineNoteView
 
@@ -31,4 +32,20 @@ open class CodeWithNotesAdapter : AbstractCodeAdapter<String> {
                     isFirst = isFirst,
                     bgColor = options.theme.bgNum.color(),
                     textColor = options.theme.noteColor.color())
+
+    /**
+     * Bind recycled footer view to another note.
+     *
+     * @param view Footer view
+     * @param entity Note content
+     * @param isFirst Is first footer view
+     */
+    override fun bindFooter(view: View, entity: String, isFirst: Boolean) =
+            view is LineNoteView && view.run {
+                bind(text = entity,
+                        isFirst = isFirst,
+                        bgColor = options.theme.bgNum.color(),
+                        textColor = options.theme.noteColor.color())
+                true
+            }
 }
@@ -0,0 +1,59 @@
+package io.github.kbiakov.codeview.adapters
+
+/**
+ * @class LineSpans
+ *
+ * Content of code lines ready to bind. Content of line is produced once,
+ * in bounded mode only some last produced lines are kept (so lines around
+ * viewport) & the rest are produced again when needed.
+ *
+ * @param size Number of lines
+ * @param maxLines Max lines to keep, 0 means all lines
+ */
+internal class LineSpans(size: Int, private val maxLines: Int = 0) {
+
+    private val spans = arrayOfNulls<CharSequence>(size)
+
+    // ring of kept lines in bounded mode
+    private val kept = IntArray(maxLines)
+    private var keptIdx = 0
+    private var keptCount = 0
+
+    val size: Int
+        get() = spans.size
+
+    /**
+     * @param pos Line number
+     * @return Content of line if kept
+     */
+    operator fun get(pos: Int) = spans[pos]
+
+    /**
+     * Get content of line, produce it if not kept.
+     *
+     * @param pos Line number
+     * @param produce Producer of line content
+     * @return Line content
+     */
+    fun getOrPut(pos: Int, produce: (Int) -> CharSequence): CharSequence =
+            spans[pos] ?: produce(pos).apply { put(pos, this) }
+
+    /**
+     * Keep content of line, the oldest kept line is dropped in bounded mode.
+     *
+     * @param pos Line number
+     * @param content Line content
+     */
+    fun put(pos: Int, content: CharSequence) {
+        if (maxLines != 0 && spans[pos] == null) {
+            if (keptCount == maxLines)
+                spans[kept[keptIdx]] = null
+            else
+                keptCount++
+
+            kept[keptIdx] = pos
+            keptIdx = (keptIdx + 1) % maxLines
+        }
+        spans[pos] = content
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.kbiakov.codeview.adapters
+
+/**
+ * @class TailLines
+ *
+ * Lines of followed content (live log) with their content ready to bind.
+ * Lines are appended to the end, in bounded mode the oldest lines are
+ * dropped (lines are kept in ring).
+ *
+ * @param maxLines Max lines to keep, 0 means all lines
+ */
+internal class TailLines(private val maxLines: Int = 0) : AbstractList<String>(), RandomAccess {
+
+    private var texts = arrayOfNulls<String>(initialCapacity())
+    private var contents = arrayOfNulls<CharSequence>(texts.size)
+    private var head = 0
+    private var count = 0
+
+    /**
+     * Number of lines dropped from the start.
+     */
+    var droppedCount = 0
+        private set
+
+    override val size: Int
+        get() = count
+
+    override fun get(index: Int) = texts[idx(index)]!!
+
+    /**
+     * @param pos Line number
+     * @return Line content ready to bind
+     */
+    fun content(pos: Int) = contents[idx(pos)]!!
+
+    /**
+     * Replace content of line, e.g. when it's recolored by appended lines.
+     *
+     * @param pos Line number
+     * @param content Line content ready to bind
+     */
+    fun setContent(pos: Int, content: CharSequence) {
+        contents[idx(pos)] = content
+    }
+
+    /**
+     * Append lines, the oldest lines are dropped when limit is reached.
+     *
+     * @param newTexts Lines
+     * @param newContents Content of lines
+     * @return Number of dropped lines
+     */
+    fun append(newTexts: List<String>, newContents: List<CharSequence>): Int {
+        var dropped = 0
+        for (i in newTexts.indices) {
+            if (maxLines != 0 && count == maxLines) {
+                head = (head + 1) % texts.size
+                count--
+                dropped++
+            } else if (count == texts.size) {
+                grow()
+            }
+            val idx = idx(count)
+            texts[idx] = newTexts[i]
+            contents[idx] = newContents[i]
+            count++
+        }
+        droppedCount += dropped
+        return dropped
+    }
+
+    private fun idx(pos: Int) = (head + pos) % texts.size
+
+    private fun grow() {
+        val capacity = if (maxLines == 0) texts.size * 2 else minOf(texts.size * 2, maxLines)
+        texts = Array(capacity) { if (it < count) texts[idx(it)] else null }
+        contents = Array(capacity) { if (it < count) contents[(head + it) % contents.size] else null }
+        head = 0
+    }
+
+    private fun initialCapacity() = if (maxLines == 0) InitialLines else minOf(InitialLines, maxLines)
+
+    companion object {
+        private const val InitialLines = 256
+    }
+}
@@ -63,4 +63,12 @@ object CodeClassifier {
         val feature = classifier.classify(spaceSplit(snippet))
         return feature?.category ?: DEFAULT_LANGUAGE
     }
+
+    /**
+     * Try to define languages of many code snippets at once.
+     *
+     * @param snippets Code snippets
+     * @return Code languages (in the same order)
+     */
+    fun classifyAll(snippets: List<String>): List<String> = snippets.map { classify(it) }
 }
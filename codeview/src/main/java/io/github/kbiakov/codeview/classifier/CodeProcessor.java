@@ -2,6 +2,7 @@ package io.github.kbiakov.codeview.classifier;
 
 import android.content.Context;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -126,6 +127,19 @@ public class CodeProcessor {
         return service.submit(new ClassifyingTask(snippet));
     }
 
+    /**
+     * Creates one classifying task for many code snippets.
+     *
+     * @param snippets Code snippets to classify.
+     * @return Classified languages (in the same order) wrapped in Future.
+     */
+    public Future<List<String>> classifyAll(List<String> snippets) {
+        final ExecutorService service = Executors.newSingleThreadExecutor();
+        final Future<List<String>> languages = service.submit(new BatchClassifyingTask(snippets));
+        service.shutdown();
+        return languages;
+    }
+
     /**
      * @class TrainingTask
      *
@@ -165,4 +179,22 @@ public class CodeProcessor {
             return CodeClassifier.INSTANCE.classify(snippet);
         }
     }
+
+    /**
+     * @class BatchClassifyingTask
+     *
+     * Language classifying task for many code snippets.
+     */
+    private static class BatchClassifyingTask implements Callable<List<String>> {
+        private List<String> snippets;
+
+        public BatchClassifyingTask(List<String> snippets) {
+            this.snippets = snippets;
+        }
+
+        @Override
+        public List<String> call() {
+            return CodeClassifier.INSTANCE.classifyAll(snippets);
+        }
+    }
 }
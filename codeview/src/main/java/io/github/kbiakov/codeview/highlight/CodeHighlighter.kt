@@ -1,9 +1,21 @@
 package io.github.kbiakov.codeview.highlight
 
+import android.content.Context
 import android.graphics.Color
+import io.github.kbiakov.codeview.classifier.CodeClassifier
+import io.github.kbiakov.codeview.classifier.CodeProcessor
+import io.github.kbiakov.codeview.highlight.parser.DecorationRuns
+import io.github.kbiakov.codeview.highlight.parser.IntStore
 import io.github.kbiakov.codeview.highlight.parser.ParseResult
+import io.github.kbiakov.codeview.highlight.payload.CodePayload
 import io.github.kbiakov.codeview.highlight.prettify.PrettifyParser
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerCheckpoints
+import io.github.kbiakov.codeview.source.TextLines
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 /**
  * Code highlighter is parses content & inserts necessary font tags
@@ -13,24 +25,300 @@ import java.util.*
  */
 object CodeHighlighter {
 
+    private val cores = Runtime.getRuntime().availableProcessors()
+
+    private const val RunsChunkLines = 1000
+    private const val RunsPartLength = 1 shl 20
+
+    /**
+     * Shared pool to lex the parts of large content concurrently.
+     */
+    private val pool: ExecutorService by lazy {
+        Executors.newFixedThreadPool(cores) { r ->
+            Thread(r, "CodeHighlighter").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * Parser of each thread, it compiles lexers of all languages when it's
+     * created, so it's reused by all highlighting on the thread.
+     */
+    private val parsers = object : ThreadLocal<PrettifyParser>() {
+        override fun initialValue() = PrettifyParser()
+    }
+
+    /**
+     * Parser of the calling thread.
+     */
+    internal val parser: PrettifyParser
+        get() = parsers.get()
+
     /**
      * Highlight code content.
      *
      * @param language Programming language
      * @param source Source code as single string
      * @param theme Color theme (see below)
+     * @param budget Lexing limits, the rest of content is left uncolored when exceeded
      * @return Highlighted code, string with necessary inserted color tags
      */
-    fun highlight(language: String, source: String, theme: ColorThemeData): String {
+    fun highlight(
+            language: String,
+            source: String,
+            theme: ColorThemeData,
+            budget: LexerBudget = LexerBudget.DEFAULT
+    ): String = highlight(language, source, theme, budget, null)
+
+    /**
+     * Highlight code content & record lexer checkpoints to highlight
+     * any lines of the same content later (see [highlightLines]).
+     *
+     * @param language Programming language
+     * @param source Source code as single string
+     * @param theme Color theme
+     * @param budget Lexing limits
+     * @param checkpoints Checkpoints to record
+     * @return Highlighted code
+     */
+    fun highlight(
+            language: String,
+            source: String,
+            theme: ColorThemeData,
+            budget: LexerBudget,
+            checkpoints: LexerCheckpoints?
+    ): String = parser.parse(language, source, budget, checkpoints)
+            .toHighlighted(source, theme)
+
+    /**
+     * Highlight code content on multiple cores. Content is split into parts
+     * at line starts, which are lexed concurrently & stitched together, so
+     * the result is the same as of [highlight]. Short content is highlighted
+     * on the calling thread.
+     *
+     * @param language Programming language
+     * @param source Source code as single string
+     * @param theme Color theme
+     * @param budget Lexing limits, shared by the parts
+     * @param parallelism Number of parts to split content into
+     * @return Highlighted code
+     */
+    fun highlightParallel(
+            language: String,
+            source: String,
+            theme: ColorThemeData,
+            budget: LexerBudget = LexerBudget.DEFAULT,
+            parallelism: Int = cores
+    ): String = parseParallel(language, source, budget, parallelism)
+            .toHighlighted(source, theme)
+
+    /**
+     * Parse code content into syntax units on multiple cores (see
+     * [highlightParallel]), to use them besides highlighting.
+     *
+     * @param language Programming language
+     * @param source Source code as single string
+     * @param budget Lexing limits, shared by the parts
+     * @param parallelism Number of parts to split content into
+     * @return Syntax units
+     */
+    fun parseParallel(
+            language: String,
+            source: String,
+            budget: LexerBudget = LexerBudget.DEFAULT,
+            parallelism: Int = cores
+    ): List<ParseResult> = parser.parse(language, source, budget, pool, parallelism)
+
+    /**
+     * Highlight only some lines of code content. Lexing starts from the
+     * nearest checkpoint, so it takes time proportional to these lines,
+     * not to the whole content.
+     *
+     * @param language Programming language
+     * @param source Source code as single string
+     * @param theme Color theme
+     * @param checkpoints Checkpoints recorded by previous highlighting of source
+     * @param fromLine First line to highlight
+     * @param toLine Line after the last line to highlight
+     * @param budget Lexing limits
+     * @return Highlighted lines
+     */
+    fun highlightLines(
+            language: String,
+            source: String,
+            theme: ColorThemeData,
+            checkpoints: LexerCheckpoints,
+            fromLine: Int,
+            toLine: Int,
+            budget: LexerBudget = LexerBudget.DEFAULT
+    ): String = parser.parse(language, source, budget, checkpoints, fromLine, toLine)
+            .toHighlighted(source, theme)
+
+    /**
+     * Parse code content into compact decoration runs, kept in store of
+     * choice (on heap, direct buffer or memory-mapped file). Content is
+     * lexed by chunks of lines, so syntax units of whole content are not
+     * kept as objects at once.
+     *
+     * @param language Programming language
+     * @param source Source code as single string
+     * @param store Store of runs (see [IntStore]), it's owned by runs
+     * @param budget Lexing limits, applied to each chunk
+     * @return Decoration runs, to be closed when not needed
+     */
+    fun parseRuns(
+            language: String,
+            source: String,
+            store: IntStore = IntStore.onHeap(),
+            budget: LexerBudget = LexerBudget.DEFAULT
+    ): DecorationRuns = parser.parse(language, source, budget, DecorationRuns(store), RunsChunkLines)
+
+    /**
+     * Parse code content into compact decoration runs on multiple cores.
+     * Content is lexed by parts of 1M chars one after another, each part on
+     * multiple cores (see [parseParallel]), so syntax units of only one part
+     * are kept as objects at once.
+     *
+     * @param language Programming language
+     * @param source Source code as single string
+     * @param store Store of runs (see [IntStore]), it's owned by runs
+     * @param budget Lexing limits, shared by the parts
+     * @param parallelism Number of chunks to split each part into
+     * @return Decoration runs, to be closed when not needed
+     */
+    fun parseRunsParallel(
+            language: String,
+            source: String,
+            store: IntStore = IntStore.onHeap(),
+            budget: LexerBudget = LexerBudget.DEFAULT,
+            parallelism: Int = cores
+    ): DecorationRuns = parser.parse(language, source, budget, DecorationRuns(store), pool, parallelism, RunsPartLength)
+
+    /**
+     * Highlight many code snippets at once (e.g. of chat or docs page).
+     * Snippets without language are classified in one task, the rest are
+     * grouped by language & highlighted on the shared pool with lexers
+     * compiled once per pool thread. It must be called in background.
+     *
+     * @param context Context (to classify snippets without language)
+     * @param snippets Code snippets
+     * @param budget Lexing limits, applied to each snippet
+     * @return Highlighted code of snippets (in the same order)
+     */
+    fun highlightAll(
+            context: Context,
+            snippets: List<CodeSnippet>,
+            budget: LexerBudget = LexerBudget.DEFAULT
+    ): List<String> {
+        val languages = classifyAll(context, snippets)
+        val highlighted = arrayOfNulls<String>(snippets.size)
+        // groups are split so all cores are busy when there are few languages
+        val partSize = maxOf(1, (snippets.size + cores - 1) / cores)
+
+        val tasks = snippets.indices.groupBy { languages[it] }.flatMap { (language, indices) ->
+            indices.chunked(partSize).map { part ->
+                Callable {
+                    part.forEach { idx ->
+                        val snippet = snippets[idx]
+                        highlighted[idx] = parser.parse(language, snippet.code, budget)
+                                .toHighlighted(snippet.code, snippet.theme)
+                    }
+                }
+            }
+        }
+        pool.invokeAll(tasks).forEach { it.get() }
+
+        return highlighted.map { it!! }
+    }
+
+    /**
+     * Languages of snippets, unknown ones are classified in one task.
+     *
+     * @param context Context
+     * @param snippets Code snippets
+     * @return Languages of snippets
+     */
+    private fun classifyAll(context: Context, snippets: List<CodeSnippet>): List<String> {
+        val unknown = snippets.filter { it.language == null }.map { it.code }
+        val classified = when {
+            unknown.isEmpty() -> emptyList()
+            CodeProcessor.getInstance(context).isTrained ->
+                CodeProcessor.getInstance(context).classifyAll(unknown).get()
+            else -> unknown.map { CodeClassifier.DEFAULT_LANGUAGE }
+        }.iterator()
+
+        return snippets.map { it.language ?: classified.next() }
+    }
+
+    /**
+     * Insert font tags for decoration runs of some part of content, so any
+     * lines can be highlighted from runs without lexing.
+     *
+     * @param source Source code
+     * @param theme Color theme
+     * @param from Start position of part
+     * @param to End position of part
+     * @return Highlighted part of code
+     */
+    fun DecorationRuns.toHighlighted(source: String, theme: ColorThemeData, from: Int = 0, to: Int = source.length) =
+            toParseResults(from, to).toHighlighted(source, theme)
+
+    /**
+     * Lines of pre-highlighted code with font tags of color theme. Line is
+     * highlighted from decoration runs when it's accessed, code is not lexed.
+     *
+     * @param theme Color theme
+     * @return Highlighted lines
+     */
+    fun CodePayload.toHighlightedLines(theme: ColorThemeData): List<String> =
+            runs.toHighlightedLines(code, theme, lineCount, this::getLineStart, this::getLineEnd)
+
+    /**
+     * Lines of code with font tags of color theme. Line is highlighted from
+     * decoration runs when it's accessed, so highlighted copy of the whole
+     * content is not kept.
+     *
+     * @param source Source code
+     * @param theme Color theme
+     * @return Highlighted lines
+     */
+    fun DecorationRuns.toHighlightedLines(source: String, theme: ColorThemeData): List<String> {
+        val lines = TextLines(source)
+        return toHighlightedLines(source, theme, lines.size, lines::lineStart, lines::lineEnd)
+    }
+
+    private fun DecorationRuns.toHighlightedLines(
+            source: String,
+            theme: ColorThemeData,
+            lineCount: Int,
+            lineStart: (Int) -> Int,
+            lineEnd: (Int) -> Int
+    ): List<String> {
         val colors = buildColorsMap(theme)
 
-        return PrettifyParser().parse(language, source)
-                .map { source highlight it applyFontParams colors[it] }
-                .reduce(String::plus)
+        return object : AbstractList<String>(), RandomAccess {
+            override val size: Int
+                get() = lineCount
+
+            override fun get(index: Int) =
+                    toParseResults(lineStart(index), lineEnd(index)).toHighlighted(source, colors)
+        }
     }
 
     // - Helpers
 
+    /**
+     * Insert font tags for parsed syntax units.
+     *
+     * @param source Source code
+     * @param theme Color theme
+     * @return Highlighted code
+     */
+    fun List<ParseResult>.toHighlighted(source: String, theme: ColorThemeData): String =
+            toHighlighted(source, buildColorsMap(theme))
+
+    private fun List<ParseResult>.toHighlighted(source: String, colors: HashMap<String, String>) =
+            joinToString("") { source highlight it applyFontParams colors[it] }
+
     /**
      * Parse input by extracting highlighted content.
      *
@@ -56,9 +344,17 @@ object CodeHighlighter {
      * @param colorTheme Color theme
      * @return Colors map built from color theme
      */
-    private fun buildColorsMap(theme: ColorThemeData): HashMap<String, String> {
-        fun color(body: SyntaxColors.() -> Int) =
-                theme.syntaxColors.let { body(it).hex() }
+    private fun buildColorsMap(theme: ColorThemeData): HashMap<String, String> =
+            styleColors(theme).mapValuesTo(HashMap()) { it.value.hex() }
+
+    /**
+     * Colors of syntax unit styles for selected color theme.
+     *
+     * @param theme Color theme
+     * @return Colors map (hex int colors)
+     */
+    internal fun styleColors(theme: ColorThemeData): HashMap<String, Int> {
+        fun color(body: SyntaxColors.() -> Int) = body(theme.syntaxColors)
         return hashMapOf(
                 "typ" to color { type },
                 "kwd" to color { keyword },
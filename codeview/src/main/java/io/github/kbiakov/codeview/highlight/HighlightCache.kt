@@ -0,0 +1,62 @@
+package io.github.kbiakov.codeview.highlight
+
+import android.text.Spanned
+import java.util.*
+
+/**
+ * @class HighlightCache
+ *
+ * Highlighted code contents ready to show, they're prepared in background
+ * before code is shown (see [HighlightPrefetcher]). Least recently used
+ * contents are dropped when there are too many lines.
+ */
+internal object HighlightCache {
+
+    private const val MaxLines = 5000
+
+    private val entries = LinkedHashMap<CodeSnippet, Entry>(16, 0.75f, true)
+    private var lineCount = 0
+
+    /**
+     * Highlighted code content.
+     *
+     * @param code Highlighted code (with color tags)
+     * @param spans Lines ready to show
+     */
+    class Entry(val code: String, val spans: List<Spanned>)
+
+    /**
+     * @param snippet Code snippet
+     * @return Highlighted content if it's kept
+     */
+    operator fun get(snippet: CodeSnippet): Entry? = synchronized(entries) {
+        entries[snippet]
+    }
+
+    /**
+     * @param snippet Code snippet
+     * @return Is highlighted content kept
+     */
+    operator fun contains(snippet: CodeSnippet) = synchronized(entries) {
+        entries.containsKey(snippet)
+    }
+
+    /**
+     * Keep highlighted content, the least recently used are dropped.
+     *
+     * @param snippet Code snippet
+     * @param entry Highlighted content
+     */
+    fun put(snippet: CodeSnippet, entry: Entry) {
+        synchronized(entries) {
+            entries.put(snippet, entry)?.let { lineCount -= it.spans.size }
+            lineCount += entry.spans.size
+
+            val iterator = entries.values.iterator()
+            while (lineCount > MaxLines && entries.size > 1) {
+                lineCount -= iterator.next().spans.size
+                iterator.remove()
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.kbiakov.codeview.highlight
+
+import android.text.Spanned
+import io.github.kbiakov.codeview.extractLines
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerCheckpoints
+import io.github.kbiakov.codeview.html
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.produce
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.withContext
+
+/**
+ * Highlighted lines of code content.
+ *
+ * @param fromLine Number of the first line
+ * @param lines Highlighted lines ready to show
+ */
+data class HighlightedLines(val fromLine: Int, val lines: List<Spanned>)
+
+/**
+ * Highlight code content to lines ready to show. Lexing is stopped when
+ * coroutine is cancelled (kotlinx.coroutines must be added to application,
+ * library doesn't depend on it).
+ *
+ * @param language Programming language
+ * @param source Source code as single string
+ * @param theme Color theme
+ * @param budget Lexing limits
+ * @param dispatcher Dispatcher to highlight on
+ * @return Highlighted lines
+ */
+suspend fun CodeHighlighter.highlightToSpans(
+        language: String,
+        source: String,
+        theme: ColorThemeData,
+        budget: LexerBudget = LexerBudget.DEFAULT,
+        dispatcher: CoroutineDispatcher = Dispatchers.Default
+): List<Spanned> = withContext(dispatcher) {
+    val code = highlight(language, source, theme, budget.cancelledBy { !isActive })
+    if (!isActive)
+        throw CancellationException()
+    extractLines(code).map { html(it) }
+}
+
+/**
+ * Highlight code content by chunks of lines, chunks are sent when they're
+ * ready (so the first lines may be shown before the rest are highlighted).
+ * Each chunk is lexed from checkpoints of previous one, so lines before it
+ * aren't lexed again (only the token it starts in). Lexers are compiled once
+ * per thread, but each chunk adds some overhead of its own (restart, tags &
+ * spans), so small chunks take longer in total than whole content.
+ *
+ * @param language Programming language
+ * @param source Source code as single string
+ * @param theme Color theme
+ * @param chunkLines Lines per chunk
+ * @param budget Lexing limits, applied to each chunk
+ * @param dispatcher Dispatcher to highlight on
+ * @return Channel of highlighted chunks
+ */
+fun CoroutineScope.highlightByChunks(
+        language: String,
+        source: String,
+        theme: ColorThemeData,
+        chunkLines: Int = DefaultChunkLines,
+        budget: LexerBudget = LexerBudget.DEFAULT,
+        dispatcher: CoroutineDispatcher = Dispatchers.Default
+): ReceiveChannel<HighlightedLines> = produce(dispatcher) {
+    val checkpoints = LexerCheckpoints()
+    val lineCount = extractLines(source).size
+    val chunkBudget = budget.cancelledBy { !isActive }
+    var fromLine = 0
+
+    while (fromLine < lineCount) {
+        val toLine = minOf(lineCount, fromLine + chunkLines)
+        val code = CodeHighlighter.highlightLines(language, source, theme,
+                checkpoints, fromLine, toLine, chunkBudget)
+        if (!isActive)
+            throw CancellationException()
+
+        val lines = extractLines(code)
+        send(HighlightedLines(fromLine, lines.subList(0, minOf(lines.size, toLine - fromLine)).map { html(it) }))
+        fromLine = toLine
+    }
+}
+
+private const val DefaultChunkLines = 100
@@ -0,0 +1,170 @@
+package io.github.kbiakov.codeview.highlight
+
+import android.content.Context
+import android.support.v7.widget.LinearLayoutManager
+import android.support.v7.widget.RecyclerView
+import io.github.kbiakov.codeview.Thread.idle
+import io.github.kbiakov.codeview.classifier.CodeClassifier
+import io.github.kbiakov.codeview.classifier.CodeProcessor
+import io.github.kbiakov.codeview.extractLines
+import io.github.kbiakov.codeview.highlight.CodeHighlighter.toHighlighted
+import io.github.kbiakov.codeview.highlight.prettify.PrettifyParser
+import io.github.kbiakov.codeview.highlight.prettify.parser.LexerBudget
+import io.github.kbiakov.codeview.html
+import java.util.*
+
+/**
+ * Code content as it's set to code view.
+ *
+ * @param code Code content
+ * @param language Programming language, null to classify
+ * @param theme Color theme
+ */
+data class CodeSnippet(
+        val code: String,
+        val language: String? = null,
+        val theme: ColorThemeData = ColorTheme.DEFAULT.theme())
+
+/**
+ * @class HighlightPrefetcher
+ *
+ * Highlights code of list items before they're shown, so code view shows
+ * colored lines as soon as options with the same code, language & theme
+ * are set. Snippets are highlighted one by one with the lowest priority
+ * & snippets which are not wanted anymore are cancelled.
+ *
+ * @param context Context
+ */
+class HighlightPrefetcher(private val context: Context) {
+
+    /**
+     * Snippets to highlight in order, the first one is highlighted now.
+     */
+    private val wanted = LinkedHashSet<CodeSnippet>()
+    private var isDraining = false
+
+    private var attachedList: RecyclerView? = null
+    private var scrollListener: RecyclerView.OnScrollListener? = null
+
+    /**
+     * Highlight snippets in background, snippets requested before & not
+     * listed here are cancelled.
+     *
+     * @param snippets Snippets in order of appearance
+     */
+    fun prefetch(snippets: List<CodeSnippet>) {
+        val isStarted = synchronized(wanted) {
+            wanted.clear()
+            snippets.filterTo(wanted) { it !in HighlightCache }
+            (wanted.isNotEmpty() && !isDraining).also { if (it) isDraining = true }
+        }
+        if (isStarted)
+            idle { drain() }
+    }
+
+    /**
+     * Cancel all requested snippets.
+     */
+    fun cancel() = prefetch(emptyList())
+
+    /**
+     * Prefetch snippets of items after the shown ones (in scroll direction),
+     * items which are scrolled past are cancelled.
+     *
+     * @param list List of items with code views (with linear layout)
+     * @param distance Number of items to prefetch
+     * @param snippetAt Snippet of item by position, null if it has no code
+     */
+    fun attachTo(list: RecyclerView, distance: Int = DefaultDistance, snippetAt: (Int) -> CodeSnippet?) {
+        detach()
+        val listener = object : RecyclerView.OnScrollListener() {
+            override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                val layout = recyclerView.layoutManager as? LinearLayoutManager ?: return
+                val count = recyclerView.adapter?.itemCount ?: return
+                val positions = if (dy >= 0) {
+                    val last = layout.findLastVisibleItemPosition()
+                    (last + 1)..minOf(count - 1, last + distance)
+                } else {
+                    val first = layout.findFirstVisibleItemPosition()
+                    (first - 1) downTo maxOf(0, first - distance)
+                }
+                prefetch(positions.mapNotNull(snippetAt))
+            }
+        }
+        list.addOnScrollListener(listener)
+        attachedList = list
+        scrollListener = listener
+    }
+
+    /**
+     * Stop prefetching for list & cancel requested snippets.
+     */
+    fun detach() {
+        scrollListener?.let { attachedList?.removeOnScrollListener(it) }
+        attachedList = null
+        scrollListener = null
+        cancel()
+    }
+
+    /**
+     * Highlight wanted snippets till there are some, with one parser.
+     * If highlighting fails, snippet is dropped & draining is stopped,
+     * so it's started again by the next prefetch.
+     */
+    private fun drain() {
+        val parser = CodeHighlighter.parser
+        var failed: CodeSnippet? = null
+        try {
+            while (true) {
+                val snippet = synchronized(wanted) {
+                    wanted.firstOrNull().also { if (it == null) isDraining = false }
+                } ?: return
+
+                failed = snippet
+                highlight(snippet, parser)
+                failed = null
+                synchronized(wanted) { wanted.remove(snippet) }
+            }
+        } finally {
+            failed?.let {
+                synchronized(wanted) {
+                    wanted.remove(it)
+                    isDraining = false
+                }
+            }
+        }
+    }
+
+    /**
+     * Highlight snippet & keep it in cache, lexing is stopped when
+     * snippet is not wanted anymore.
+     *
+     * @param snippet Code snippet
+     * @param parser Parser (lexers are compiled once for all snippets)
+     */
+    private fun highlight(snippet: CodeSnippet, parser: PrettifyParser) {
+        val isCancelled = { synchronized(wanted) { snippet !in wanted } }
+        val language = snippet.language ?: classify(snippet.code)
+        val budget = LexerBudget.DEFAULT.cancelledBy { isCancelled() }
+        val code = parser.parse(language, snippet.code, budget).toHighlighted(snippet.code, snippet.theme)
+        if (isCancelled())
+            return
+
+        val lineCount = extractLines(snippet.code).size
+        val spans = extractLines(code).take(lineCount).map { html(it) }
+        HighlightCache.put(snippet, HighlightCache.Entry(code, spans))
+    }
+
+    private fun classify(code: String): String {
+        val processor = CodeProcessor.getInstance(context)
+
+        return if (processor.isTrained)
+            processor.classify(code).get()
+        else
+            CodeClassifier.DEFAULT_LANGUAGE
+    }
+
+    companion object {
+        private const val DefaultDistance = 5
+    }
+}
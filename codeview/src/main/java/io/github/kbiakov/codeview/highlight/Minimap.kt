@@ -0,0 +1,157 @@
+package io.github.kbiakov.codeview.highlight
+
+import android.graphics.Bitmap
+import io.github.kbiakov.codeview.highlight.parser.ParseResult
+
+/**
+ * @class Minimap
+ *
+ * Downsampled overview of highlighted code. Each pixel row covers some
+ * lines & each pixel column some characters, pixels are filled by syntax
+ * units. So building costs as much as the number of syntax units, not
+ * characters of code.
+ *
+ * Rows are split into chunks, chunks with the same syntax units as in
+ * previous minimap are taken from it instead of drawn again.
+ *
+ * @param lineCount Number of code lines
+ * @param linesPerRow Lines covered by pixel row
+ * @param chunks Bitmaps of row chunks, null for chunk without code
+ */
+class Minimap private constructor(
+        val lineCount: Int,
+        val linesPerRow: Int,
+        private val chunkHashes: IntArray,
+        val chunks: Array<Bitmap?>) {
+
+    val rowCount: Int
+        get() = (lineCount + linesPerRow - 1) / linesPerRow
+
+    companion object {
+        const val Width = 40
+        const val RowsPerChunk = 64
+        private const val ColumnsPerPixel = 2
+        private const val MaxRows = 2048
+
+        /**
+         * Build minimap of highlighted code.
+         *
+         * @param source Source code (not highlighted)
+         * @param results Syntax units of source
+         * @param theme Color theme
+         * @param previous Previous minimap to take unchanged chunks from
+         * @return Minimap
+         */
+        fun build(source: String, results: List<ParseResult>, theme: ColorThemeData, previous: Minimap? = null): Minimap {
+            val lineStarts = lineStarts(source)
+            val lineCount = lineStarts.size
+            val linesPerRow = (lineCount + MaxRows - 1) / MaxRows
+            val rowCount = (lineCount + linesPerRow - 1) / linesPerRow
+            val chunkCount = (rowCount + RowsPerChunk - 1) / RowsPerChunk
+            val linesPerChunk = linesPerRow * RowsPerChunk
+
+            val colors = CodeHighlighter.styleColors(theme).mapValues { 0xFF000000.toInt() or it.value }
+            val plainColor = colors.getValue("pln")
+            fun colorOf(result: ParseResult) = colors[result.styleKeys[0]] ?: plainColor
+
+            // hash chunks by their syntax units, remember the first unit of each chunk
+            val hashes = IntArray(chunkCount)
+            val firstRuns = IntArray(chunkCount) { -1 }
+            forEachSegment(source, results, lineStarts, 0, 0, lineCount) { run, line, fromCol, toCol ->
+                val chunk = line / linesPerChunk
+                if (firstRuns[chunk] == -1) firstRuns[chunk] = run
+                var hash = hashes[chunk]
+                hash = 31 * hash + line % linesPerChunk
+                hash = 31 * hash + fromCol
+                hash = 31 * hash + toCol
+                hashes[chunk] = 31 * hash + colorOf(results[run])
+            }
+
+            val isComparable = previous != null && previous.linesPerRow == linesPerRow
+            val chunks = Array(chunkCount) { chunk ->
+                val firstRun = firstRuns[chunk]
+                when {
+                    firstRun == -1 -> null
+                    isComparable && chunk < previous!!.chunks.size && previous.chunkHashes[chunk] == hashes[chunk] ->
+                        previous.chunks[chunk]
+                    else -> {
+                        val pixels = IntArray(Width * RowsPerChunk)
+                        val fromLine = chunk * linesPerChunk
+                        val runLine = lineOf(lineStarts, results[firstRun].offset)
+                        forEachSegment(source, results, lineStarts, firstRun, runLine, minOf(lineCount, fromLine + linesPerChunk)) { run, line, fromCol, toCol ->
+                            if (line >= fromLine) {
+                                val offset = (line - fromLine) / linesPerRow * Width
+                                val fromX = fromCol / ColumnsPerPixel
+                                val toX = minOf(Width, (toCol + ColumnsPerPixel - 1) / ColumnsPerPixel)
+                                val color = colorOf(results[run])
+                                for (x in fromX until toX) pixels[offset + x] = color
+                            }
+                        }
+                        Bitmap.createBitmap(pixels, Width, RowsPerChunk, Bitmap.Config.ARGB_8888)
+                    }
+                }
+            }
+            return Minimap(lineCount, linesPerRow, hashes, chunks)
+        }
+
+        /**
+         * Iterate parts of syntax units by lines (unit of multi-line comment
+         * has part per line), skip blank units.
+         */
+        private inline fun forEachSegment(
+                source: String,
+                results: List<ParseResult>,
+                lineStarts: IntArray,
+                fromRun: Int,
+                fromLine: Int,
+                toLine: Int,
+                action: (run: Int, line: Int, fromCol: Int, toCol: Int) -> Unit) {
+            var line = fromLine
+            for (run in fromRun until results.size) {
+                val result = results[run]
+                var start = result.offset
+                val end = start + result.length
+                if (end <= start || isBlank(source, result))
+                    continue
+
+                while (line + 1 < lineStarts.size && lineStarts[line + 1] <= start)
+                    line++
+                while (line < toLine) {
+                    val lineEnd = if (line + 1 < lineStarts.size) lineStarts[line + 1] - 1 else source.length
+                    val segmentEnd = minOf(end, lineEnd)
+                    if (segmentEnd > start)
+                        action(run, line, start - lineStarts[line], segmentEnd - lineStarts[line])
+                    if (end <= lineEnd)
+                        break
+                    line++
+                    start = lineStarts[line]
+                }
+                if (line >= toLine)
+                    return
+            }
+        }
+
+        /**
+         * Whitespace is lexed as separate plain unit.
+         */
+        private fun isBlank(source: String, result: ParseResult) =
+                result.styleKeys[0] == "pln" && Character.isWhitespace(source[result.offset])
+
+        private fun lineStarts(source: String): IntArray {
+            var starts = IntArray(1024)
+            var count = 1
+            var idx = source.indexOf('\n')
+            while (idx != -1) {
+                if (count == starts.size) starts = starts.copyOf(count * 2)
+                starts[count++] = idx + 1
+                idx = source.indexOf('\n', idx + 1)
+            }
+            return starts.copyOf(count)
+        }
+
+        private fun lineOf(lineStarts: IntArray, pos: Int): Int {
+            val idx = java.util.Arrays.binarySearch(lineStarts, pos)
+            return if (idx >= 0) idx else -idx - 2
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.kbiakov.codeview.source
+
+import android.content.Context
+import android.net.Uri
+import java.io.Closeable
+import java.io.File
+import java.io.InputStream
+import java.nio.charset.Charset
+
+/**
+ * @class CodeSource
+ *
+ * Code content which is not kept as single string. Only lines are read
+ * when they're shown, so large files may be shown with bounded memory.
+ */
+interface CodeSource : Closeable {
+
+    /**
+     * Number of lines.
+     */
+    val lineCount: Int
+
+    /**
+     * @param line Line number
+     * @return Text of line (without line break)
+     */
+    fun line(line: Int): String
+
+    /**
+     * @param fromLine First line
+     * @param toLine Line after the last line
+     * @return Text of lines joined by line breaks
+     */
+    fun text(fromLine: Int, toLine: Int): String
+
+    /**
+     * Line with the most characters (approximately), to measure width of
+     * content without reading all lines.
+     *
+     * @return Line number
+     */
+    fun longestLine(): Int
+
+    companion object {
+        /**
+         * Read code from file. Lines are indexed here (in one pass over the
+         * file), so it must be called in background.
+         *
+         * @param file File with code
+         * @param charset Charset of file, line break must be single byte '\n'
+         * @return Code source
+         */
+        fun fromFile(file: File, charset: Charset = Charsets.UTF_8): CodeSource =
+                MappedCodeSource(file, charset)
+
+        /**
+         * Read code from stream. It's copied to temporary file, which is
+         * deleted when source is closed, so it must be called in background.
+         *
+         * @param context Context
+         * @param input Stream with code, it's closed after reading
+         * @param charset Charset of stream, line break must be single byte '\n'
+         * @return Code source
+         */
+        fun fromStream(context: Context, input: InputStream, charset: Charset = Charsets.UTF_8): CodeSource {
+            val file = File.createTempFile(TempPrefix, null, context.cacheDir)
+            try {
+                input.use { stream ->
+                    file.outputStream().use { stream.copyTo(it, BufferSize) }
+                }
+                return MappedCodeSource(file, charset, isTemp = true)
+            } catch (e: Exception) {
+                file.delete()
+                throw e
+            }
+        }
+
+        /**
+         * Read code from content (or file) URI, it must be called in background.
+         *
+         * @param context Context
+         * @param uri URI of code
+         * @param charset Charset of content, line break must be single byte '\n'
+         * @return Code source
+         */
+        fun fromUri(context: Context, uri: Uri, charset: Charset = Charsets.UTF_8): CodeSource {
+            val path = uri.path
+            if (uri.scheme == "file" && path != null)
+                return fromFile(File(path), charset)
+
+            val input = context.contentResolver.openInputStream(uri)
+                    ?: throw IllegalArgumentException("Can't open $uri")
+            return fromStream(context, input, charset)
+        }
+
+        private const val TempPrefix = "codeview"
+        private const val BufferSize = 64 * 1024
+    }
+}
+
+/**
+ * Lines of source read when they're accessed.
+ */
+internal fun CodeSource.asLines(): List<String> = object : AbstractList<String>() {
+    override val size: Int
+        get() = lineCount
+
+    override fun get(index: Int) = line(index)
+}
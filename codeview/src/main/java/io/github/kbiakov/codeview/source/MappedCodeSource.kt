@@ -0,0 +1,91 @@
+package io.github.kbiakov.codeview.source
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.Charset
+
+/**
+ * @class MappedCodeSource
+ *
+ * Code source of memory-mapped file. Offsets of line starts are indexed in
+ * one pass over bytes, lines are decoded when they're read. So memory is
+ * taken by index only (one int per line), not by content.
+ *
+ * @param file File with code
+ * @param charset Charset of file
+ * @param isTemp Delete file when source is closed
+ */
+internal class MappedCodeSource(
+        private val file: File,
+        private val charset: Charset,
+        private val isTemp: Boolean = false) : CodeSource {
+
+    private val buffer: ByteBuffer
+    private val lineStarts: IntArray
+    private val longestLine: Int
+
+    override val lineCount: Int
+        get() = lineStarts.size
+
+    init {
+        buffer = RandomAccessFile(file, "r").use {
+            val size = it.length()
+            if (size > Int.MAX_VALUE)
+                throw IllegalArgumentException("File is too large: $file")
+            it.channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+        }
+
+        var starts = IntArray(InitialLines)
+        var count = 1
+        var longest = 0
+        var longestLength = 0
+        val size = buffer.limit()
+        for (pos in 0 until size) {
+            if (buffer.get(pos) != LineBreak)
+                continue
+
+            val length = pos - starts[count - 1]
+            if (length > longestLength) {
+                longest = count - 1
+                longestLength = length
+            }
+            if (count == starts.size) starts = starts.copyOf(count * 2)
+            starts[count++] = pos + 1
+        }
+        if (size - starts[count - 1] > longestLength)
+            longest = count - 1
+
+        lineStarts = starts.copyOf(count)
+        longestLine = longest
+    }
+
+    override fun line(line: Int) = decode(lineStarts[line], lineEnd(line))
+
+    override fun text(fromLine: Int, toLine: Int) =
+            if (fromLine >= toLine) "" else decode(lineStarts[fromLine], lineEnd(toLine - 1))
+
+    override fun longestLine() = longestLine
+
+    override fun close() {
+        if (isTemp) file.delete()
+    }
+
+    private fun lineEnd(line: Int) =
+            if (line + 1 < lineStarts.size) lineStarts[line + 1] - 1 else buffer.limit()
+
+    /**
+     * Decode bytes, buffer itself is not changed (it's read from many threads).
+     */
+    private fun decode(from: Int, to: Int): String {
+        val bytes = ByteArray(to - from)
+        (buffer.duplicate().position(from) as ByteBuffer).get(bytes)
+        return String(bytes, charset)
+    }
+
+    companion object {
+        private const val LineBreak: Byte = 0x0A
+        private const val InitialLines = 1024
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.kbiakov.codeview.source
+
+/**
+ * @class TextLines
+ *
+ * Lines of text indexed by offsets of line starts (one pass, no regex).
+ * Line is cut from text only when it's accessed, so memory is taken by
+ * one int per line instead of string per line.
+ *
+ * @param text Text to split by line breaks
+ */
+internal class TextLines(private val text: String) : AbstractList<String>(), RandomAccess {
+
+    private val lineStarts: IntArray
+
+    override val size: Int
+        get() = lineStarts.size
+
+    init {
+        var starts = IntArray(InitialLines)
+        var count = 1
+        var idx = text.indexOf('\n')
+        while (idx != -1) {
+            if (count == starts.size) starts = starts.copyOf(count * 2)
+            starts[count++] = idx + 1
+            idx = text.indexOf('\n', idx + 1)
+        }
+        lineStarts = starts.copyOf(count)
+    }
+
+    override fun get(index: Int): String = text.substring(lineStarts[index], lineEnd(index))
+
+    /**
+     * @param line Line number
+     * @return Start position of line in text
+     */
+    fun lineStart(line: Int) = lineStarts[line]
+
+    /**
+     * @param line Line number
+     * @return End position of line in text (without line break)
+     */
+    fun lineEnd(line: Int) =
+            if (line + 1 < lineStarts.size) lineStarts[line + 1] - 1 else text.length
+
+    companion object {
+        private const val InitialLines = 64
+    }
+}
@@ -1,12 +1,15 @@
 package io.github.kbiakov.codeview.views
 
 import android.content.Context
+import android.support.v4.view.ViewCompat
 import android.util.AttributeSet
 import android.view.MotionEvent
+import android.view.VelocityTracker
 import android.view.View
 import android.view.View.MeasureSpec.makeMeasureSpec
+import android.view.ViewConfiguration
 import android.widget.HorizontalScrollView
-import io.github.kbiakov.codeview.dpToPx
+import android.widget.OverScroller
 
 /**
  * @class BidirectionalScrollView
@@ -16,37 +19,76 @@ import io.github.kbiakov.codeview.dpToPx
  *
  * @author Kirill Biakov
  */
-class BidirectionalScrollView : HorizontalScrollView {
+class BidirectionalScrollView : HorizontalScrollView, MinimapTarget {
 
     private var currentX = 0
     private var currentY = 0
+    private var downX = 0
+    private var downY = 0
     private var isMoved = false
 
+    private val touchSlop = ViewConfiguration.get(context).scaledTouchSlop
+    private val minFlingVelocity = ViewConfiguration.get(context).scaledMinimumFlingVelocity
+    private val maxFlingVelocity = ViewConfiguration.get(context).scaledMaximumFlingVelocity
+    private val flingScroller = OverScroller(context)
+    private var velocityTracker: VelocityTracker? = null
+
+    /**
+     * Fixed width of content, so it's not measured by its children & scroll
+     * extent is known at once. 0 means content is measured.
+     */
+    var contentWidth = 0
+        set(value) {
+            if (field != value) {
+                field = value
+                requestLayout()
+            }
+        }
+
+    override var scrollListener: (() -> Unit)? = null
+
+    override val contentHeight: Int
+        get() = getChildAt(0)?.height ?: 0
+
+    override val viewportHeight: Int
+        get() = height - paddingTop - paddingBottom
+
+    override val scrollOffset: Int
+        get() = scrollY
+
     constructor(context: Context) : super(context)
     constructor(context: Context, attrs: AttributeSet) : super(context, attrs)
     constructor(context: Context, attrs: AttributeSet, defStyleAttr: Int) : super(context, attrs, defStyleAttr)
 
     override fun dispatchTouchEvent(event: MotionEvent): Boolean {
-        when (event.action) {
+        when (event.actionMasked) {
             MotionEvent.ACTION_DOWN -> {
+                flingScroller.forceFinished(true)
                 currentX = event.rawX.toInt()
                 currentY = event.rawY.toInt()
+                downX = currentX
+                downY = currentY
+                velocityTracker = (velocityTracker ?: VelocityTracker.obtain()).apply {
+                    clear()
+                    addMovement(event)
+                }
                 return super.dispatchTouchEvent(event)
             }
             MotionEvent.ACTION_MOVE -> {
-                val deltaX = Math.abs(currentX - event.rawX)
-                val deltaY = Math.abs(currentY - event.rawY)
+                velocityTracker?.addMovement(event)
                 scroll(event)
 
-                val movedOnDistance = dpToPx(context, 2)
-                if (deltaX > movedOnDistance || deltaY > movedOnDistance) {
+                if (!isMoved && (Math.abs(downX - currentX) > touchSlop || Math.abs(downY - currentY) > touchSlop)) {
                     isMoved = true
+                    cancelChildren(event)
                 }
             }
             MotionEvent.ACTION_UP -> {
                 if (!isMoved) {
                     return super.dispatchTouchEvent(event)
                 }
+                velocityTracker?.addMovement(event)
+                fling()
                 isMoved = false
             }
             MotionEvent.ACTION_CANCEL -> {
@@ -59,17 +101,85 @@ class BidirectionalScrollView : HorizontalScrollView {
     private fun scroll(event: MotionEvent) {
         val x2 = event.rawX.toInt()
         val y2 = event.rawY.toInt()
-        val posX = currentX - x2
-        val posY = currentY - y2
-        scrollBy(posX, posY)
+        val posX = clamp(scrollX + currentX - x2, maxScrollX())
+        val posY = clamp(scrollY + currentY - y2, maxScrollY())
 
+        if (posX != scrollX || posY != scrollY) {
+            // parent scrolls only when content is at its bounds
+            parent?.requestDisallowInterceptTouchEvent(true)
+            scrollTo(posX, posY)
+        }
         currentX = x2
         currentY = y2
     }
 
+    /**
+     * Children got down event, so pressed state is cancelled when it turns
+     * out to be scroll (once per gesture).
+     */
+    private fun cancelChildren(event: MotionEvent) {
+        val cancelEvent = MotionEvent.obtain(event)
+        cancelEvent.action = MotionEvent.ACTION_CANCEL
+        super.dispatchTouchEvent(cancelEvent)
+        cancelEvent.recycle()
+    }
+
+    private fun fling() {
+        val tracker = velocityTracker ?: return
+        tracker.computeCurrentVelocity(1000, maxFlingVelocity.toFloat())
+        val velocityX = tracker.xVelocity.toInt()
+        val velocityY = tracker.yVelocity.toInt()
+
+        if (Math.abs(velocityX) > minFlingVelocity || Math.abs(velocityY) > minFlingVelocity) {
+            flingScroller.fling(scrollX, scrollY, -velocityX, -velocityY,
+                    0, maxScrollX(), 0, maxScrollY())
+            ViewCompat.postInvalidateOnAnimation(this)
+        }
+    }
+
+    override fun computeScroll() {
+        if (flingScroller.computeScrollOffset()) {
+            scrollTo(flingScroller.currX, flingScroller.currY)
+            ViewCompat.postInvalidateOnAnimation(this)
+        } else {
+            super.computeScroll()
+        }
+    }
+
+    override fun scrollToOffset(offset: Int) {
+        flingScroller.forceFinished(true)
+        scrollTo(scrollX, clamp(offset, maxScrollY()))
+    }
+
+    override fun onScrollChanged(l: Int, t: Int, oldl: Int, oldt: Int) {
+        super.onScrollChanged(l, t, oldl, oldt)
+        scrollListener?.invoke()
+    }
+
+    override fun onDetachedFromWindow() {
+        super.onDetachedFromWindow()
+        flingScroller.forceFinished(true)
+        velocityTracker?.recycle()
+        velocityTracker = null
+    }
+
+    private fun maxScrollX() = getChildAt(0)?.let {
+        maxOf(0, it.width - (width - paddingLeft - paddingRight))
+    } ?: 0
+
+    private fun maxScrollY() = getChildAt(0)?.let {
+        maxOf(0, it.height - (height - paddingTop - paddingBottom))
+    } ?: 0
+
+    private fun clamp(value: Int, max: Int) = minOf(maxOf(value, 0), max)
+
     override fun measureChild(child: View, parentWidthMeasureSpec: Int, parentHeightMeasureSpec: Int) {
         val zeroMeasureSpec = makeMeasureSpec(0)
-        child.measure(zeroMeasureSpec, zeroMeasureSpec)
+        val widthMeasureSpec = if (contentWidth > 0)
+            makeMeasureSpec(contentWidth, MeasureSpec.EXACTLY)
+        else
+            zeroMeasureSpec
+        child.measure(widthMeasureSpec, zeroMeasureSpec)
     }
 
     override fun measureChildWithMargins(
@@ -77,7 +187,10 @@ class BidirectionalScrollView : HorizontalScrollView {
             parentWidthMeasureSpec: Int, widthUsed: Int,
             parentHeightMeasureSpec: Int, heightUsed: Int
     ) = with(child.layoutParams as MarginLayoutParams) {
-        val widthMeasureSpec = makeMeasureSpec(leftMargin + rightMargin, MeasureSpec.UNSPECIFIED)
+        val widthMeasureSpec = if (contentWidth > 0)
+            makeMeasureSpec(contentWidth, MeasureSpec.EXACTLY)
+        else
+            makeMeasureSpec(leftMargin + rightMargin, MeasureSpec.UNSPECIFIED)
         val heightMeasureSpec = makeMeasureSpec(topMargin + bottomMargin, MeasureSpec.UNSPECIFIED)
         child.measure(widthMeasureSpec, heightMeasureSpec)
     }
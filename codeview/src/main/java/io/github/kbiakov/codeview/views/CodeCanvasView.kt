@@ -0,0 +1,266 @@
+package io.github.kbiakov.codeview.views
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import android.graphics.Typeface
+import android.support.v4.view.ViewCompat
+import android.support.v7.widget.RecyclerView
+import android.text.Layout
+import android.text.StaticLayout
+import android.text.TextPaint
+import android.util.AttributeSet
+import android.util.LruCache
+import android.util.TypedValue
+import android.view.GestureDetector
+import android.view.MotionEvent
+import android.view.View
+import android.widget.OverScroller
+import io.github.kbiakov.codeview.R
+import io.github.kbiakov.codeview.adapters.AbstractCodeAdapter
+import io.github.kbiakov.codeview.adapters.AbstractCodeAdapter.ViewHolderType.Companion.LineStartIdx
+import io.github.kbiakov.codeview.adapters.Format
+import io.github.kbiakov.codeview.dpToPx
+import io.github.kbiakov.codeview.highlight.ColorThemeData
+import io.github.kbiakov.codeview.highlight.color
+
+/**
+ * @class CodeCanvasView
+ *
+ * Draws code lines of adapter on single canvas, alternative to list of
+ * line views for very large listings. Only visible lines are laid out &
+ * drawn together with line numbers, layouts of recently drawn lines are
+ * cached. Line footers are not shown.
+ *
+ * Horizontal extent is known from the longest line before it's drawn.
+ * View scrolls itself when its height is limited, otherwise it takes the
+ * full height & draws only lines visible in parent.
+ */
+class CodeCanvasView @JvmOverloads constructor(
+        context: Context,
+        attrs: AttributeSet? = null,
+        defStyleAttr: Int = 0
+) : View(context, attrs, defStyleAttr), MinimapTarget {
+
+    private var adapter: AbstractCodeAdapter<*>? = null
+
+    override var scrollListener: (() -> Unit)? = null
+
+    override val contentHeight: Int
+        get() = adapter?.let { borderHeight * 2 + it.lineCount * lineHeight } ?: 0
+
+    override val viewportHeight: Int
+        get() = height
+
+    override val scrollOffset: Int
+        get() = scrollY
+
+    private val contentPaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
+    private val numPaint = TextPaint(Paint.ANTI_ALIAS_FLAG).apply { textAlign = Paint.Align.CENTER }
+    private val bgPaint = Paint()
+
+    private val layouts = LruCache<Int, StaticLayout>(MaxCachedLayouts)
+    private var contentWidth = 0
+
+    private var theme: ColorThemeData? = null
+    private var font: Typeface? = null
+    private var format: Format? = null
+
+    private val numWidth = resources.getDimensionPixelSize(R.dimen.line_num_width)
+    private val margin = resources.getDimensionPixelSize(R.dimen.default_margin)
+    private var columnWidth = 0f
+    private var lineHeight = 0
+    private var borderHeight = 0
+
+    private val clip = Rect()
+    private val scroller = OverScroller(context)
+    private val gestures = GestureDetector(context, object : GestureDetector.SimpleOnGestureListener() {
+        override fun onDown(e: MotionEvent): Boolean {
+            scroller.forceFinished(true)
+            return true
+        }
+
+        override fun onScroll(e1: MotionEvent, e2: MotionEvent, distanceX: Float, distanceY: Float): Boolean {
+            val x = clamp(scrollX + distanceX.toInt(), maxScrollX())
+            val y = clamp(scrollY + distanceY.toInt(), maxScrollY())
+            if (x != scrollX || y != scrollY) {
+                parent?.requestDisallowInterceptTouchEvent(true)
+                scrollTo(x, y)
+            }
+            return true
+        }
+
+        override fun onFling(e1: MotionEvent, e2: MotionEvent, velocityX: Float, velocityY: Float): Boolean {
+            scroller.fling(scrollX, scrollY, -velocityX.toInt(), -velocityY.toInt(),
+                    0, maxScrollX(), 0, maxScrollY())
+            ViewCompat.postInvalidateOnAnimation(this@CodeCanvasView)
+            return true
+        }
+
+        override fun onSingleTapUp(e: MotionEvent): Boolean {
+            val pos = (e.y.toInt() + scrollY - borderHeight) / lineHeight
+            adapter?.apply {
+                if (pos in 0 until lineCount) onLineClicked(pos)
+            }
+            return true
+        }
+    })
+
+    private val observer = object : RecyclerView.AdapterDataObserver() {
+        override fun onChanged() = invalidateLines()
+
+        override fun onItemRangeChanged(positionStart: Int, itemCount: Int) {
+            for (pos in positionStart - LineStartIdx until positionStart - LineStartIdx + itemCount)
+                layouts.remove(pos)
+            invalidate()
+        }
+
+        override fun onItemRangeInserted(positionStart: Int, itemCount: Int) = invalidateLines()
+        override fun onItemRangeRemoved(positionStart: Int, itemCount: Int) = invalidateLines()
+        override fun onItemRangeMoved(fromPosition: Int, toPosition: Int, itemCount: Int) = invalidateLines()
+    }
+
+    /**
+     * Draw lines of adapter.
+     *
+     * @param adapter Adapter, null to stop drawing
+     */
+    fun setAdapter(adapter: AbstractCodeAdapter<*>?) {
+        if (this.adapter === adapter)
+            return
+
+        this.adapter?.unregisterAdapterDataObserver(observer)
+        this.adapter = adapter
+        adapter?.registerAdapterDataObserver(observer)
+        scrollTo(0, 0)
+        invalidateLines()
+    }
+
+    private fun invalidateLines() {
+        layouts.evictAll()
+        contentWidth = 0
+        requestLayout()
+        invalidate()
+    }
+
+    /**
+     * Apply color theme, font & format of options (only when changed).
+     */
+    private fun applyStyle(adapter: AbstractCodeAdapter<*>) {
+        val options = adapter.options
+        if (theme === options.theme && font === options.font && format == options.format)
+            return
+
+        val textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP,
+                options.format.fontSize, resources.displayMetrics)
+        contentPaint.apply {
+            typeface = options.font
+            this.textSize = textSize
+            color = options.theme.noteColor.color()
+        }
+        numPaint.apply {
+            typeface = options.font
+            this.textSize = textSize
+            color = options.theme.numColor.color()
+        }
+        columnWidth = contentPaint.measureText("W")
+        lineHeight = dpToPx(context, options.format.lineHeight)
+        borderHeight = dpToPx(context, options.format.borderHeight)
+
+        theme = options.theme
+        font = options.font
+        format = options.format
+        layouts.evictAll()
+        contentWidth = 0
+    }
+
+    /**
+     * Layout of line content, cached for recently drawn lines.
+     */
+    @Suppress("deprecation")
+    private fun layout(adapter: AbstractCodeAdapter<*>, pos: Int): StaticLayout =
+            layouts[pos] ?: adapter.lineContent(pos).let { content ->
+                val width = Math.ceil(Layout.getDesiredWidth(content, contentPaint).toDouble()).toInt()
+                contentWidth = maxOf(contentWidth, width)
+                StaticLayout(content, contentPaint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false)
+            }.apply {
+                layouts.put(pos, this)
+            }
+
+    override fun onMeasure(widthMeasureSpec: Int, heightMeasureSpec: Int) {
+        val height = adapter?.let {
+            applyStyle(it)
+            borderHeight * 2 + it.lineCount * lineHeight
+        } ?: 0
+        setMeasuredDimension(
+                getDefaultSize(suggestedMinimumWidth, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec))
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        val adapter = adapter ?: return
+        applyStyle(adapter)
+        val theme = adapter.options.theme
+
+        canvas.getClipBounds(clip)
+        canvas.drawColor(theme.bgContent.color())
+        bgPaint.color = theme.bgNum.color()
+        canvas.drawRect(scrollX.toFloat(), clip.top.toFloat(),
+                (scrollX + numWidth).toFloat(), clip.bottom.toFloat(), bgPaint)
+
+        val first = maxOf(0, (clip.top - borderHeight) / lineHeight)
+        val last = minOf(adapter.lineCount - 1, (clip.bottom - borderHeight) / lineHeight)
+        val fontSize = numPaint.textSize
+
+        for (pos in first..last) {
+            val top = borderHeight + pos * lineHeight
+            val layout = layout(adapter, pos)
+
+            canvas.save()
+            canvas.clipRect(scrollX + numWidth, top, scrollX + width, top + lineHeight)
+            canvas.translate((numWidth + margin).toFloat(), top + (lineHeight - layout.height) / 2f)
+            layout.draw(canvas)
+            canvas.restore()
+
+            // line numbers are not scrolled horizontally
+            numPaint.textSize = if (adapter.isShortcutLine(pos)) fontSize * Format.ShortcutScale else fontSize
+            val baseline = top + (lineHeight - numPaint.descent() - numPaint.ascent()) / 2f
+            canvas.drawText(adapter.lineNumber(pos), scrollX + numWidth / 2f, baseline, numPaint)
+            numPaint.textSize = fontSize
+        }
+    }
+
+    override fun scrollToOffset(offset: Int) {
+        scroller.forceFinished(true)
+        scrollTo(scrollX, clamp(offset, maxScrollY()))
+    }
+
+    override fun onScrollChanged(l: Int, t: Int, oldl: Int, oldt: Int) {
+        super.onScrollChanged(l, t, oldl, oldt)
+        scrollListener?.invoke()
+    }
+
+    override fun onTouchEvent(event: MotionEvent) =
+            gestures.onTouchEvent(event) || super.onTouchEvent(event)
+
+    override fun computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(scroller.currX, scroller.currY)
+            ViewCompat.postInvalidateOnAnimation(this)
+        }
+    }
+
+    private fun maxScrollX(): Int {
+        val columnsWidth = adapter?.let { (it.maxColumns * columnWidth).toInt() } ?: 0
+        return maxOf(0, numWidth + margin * 2 + maxOf(contentWidth, columnsWidth) - width)
+    }
+
+    private fun maxScrollY() = maxOf(0, contentHeight - height)
+
+    private fun clamp(value: Int, max: Int) = minOf(maxOf(value, 0), max)
+
+    companion object {
+        private const val MaxCachedLayouts = 256
+    }
+}
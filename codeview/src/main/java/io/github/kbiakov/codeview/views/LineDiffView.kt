@@ -20,12 +20,28 @@ class LineDiffView(context: Context) : RelativeLayout(context) {
     private val tvLineDiff: TextView
     private val tvLineContent: TextView
 
+    private val addBgColor = ContextCompat.getColor(context, R.color.diff_add_background)
+    private val delBgColor = ContextCompat.getColor(context, R.color.diff_del_background)
+
     init {
         val inflater = context.getSystemService(Context.LAYOUT_INFLATER_SERVICE) as LayoutInflater
         inflater.inflate(R.layout.item_code_diff, this, true)
 
         tvLineDiff = findViewById(R.id.tv_line_diff) as TextView
         tvLineContent = findViewById(R.id.tv_line_content) as TextView
+        tvLineContent.typeface = FontCache.get(context).getTypeface(context)
+    }
+
+    /**
+     * Bind diff view to another diff model (view is reused).
+     *
+     * @param model Diff model
+     */
+    fun bind(model: DiffModel) {
+        tvLineDiff.text = if (model.isAddition) "+" else "-"
+        tvLineContent.text = model.content
+
+        setBackgroundColor(if (model.isAddition) addBgColor else delBgColor)
     }
 
     companion object Factory {
@@ -37,15 +53,7 @@ class LineDiffView(context: Context) : RelativeLayout(context) {
          * @return Created line diff view
          */
         fun create(context: Context, model: DiffModel) = LineDiffView(context).apply {
-            tvLineDiff.text = if (model.isAddition) "+" else "-"
-            tvLineContent.text = model.content
-            tvLineContent.typeface = FontCache.get(context).getTypeface(context)
-
-            setBackgroundColor(ContextCompat.getColor(context,
-                    if (model.isAddition)
-                        R.color.diff_add_background
-                    else
-                        R.color.diff_del_background))
+            bind(model)
         }
     }
 }
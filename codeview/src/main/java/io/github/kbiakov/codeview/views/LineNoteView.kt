@@ -14,6 +14,29 @@ import io.github.kbiakov.codeview.dpToPx
  */
 class LineNoteView(context: Context?) : TextView(context) {
 
+    /**
+     * Bind note view to another note (view is reused).
+     *
+     * @param text Note text
+     * @param isFirst Is first footer view
+     * @param bgColor Background color
+     * @param textColor Text Color
+     */
+    fun bind(text: String, isFirst: Boolean, bgColor: Int, textColor: Int) {
+        this.text = text
+        setTextColor(textColor)
+        setBackgroundColor(bgColor)
+
+        val dp8 = dpToPx(context, 8)
+
+        val leftPadding = context.resources.getDimension(
+                R.dimen.line_num_width).toInt() + dpToPx(context, 14)
+
+        val topPadding = if (isFirst) dp8 else 0
+
+        setPadding(leftPadding, topPadding, dp8, dp8)
+    }
+
     companion object Factory {
         /**
          * Simple factory method to create note view.
@@ -28,18 +51,7 @@ class LineNoteView(context: Context?) : TextView(context) {
         fun create(context: Context, text: String, isFirst: Boolean, bgColor: Int, textColor: Int): LineNoteView {
             val noteView = LineNoteView(context)
             noteView.textSize = 12f
-            noteView.text = text
-            noteView.setTextColor(textColor)
-            noteView.setBackgroundColor(bgColor)
-
-            val dp8 = dpToPx(context, 8)
-
-            val leftPadding = context.resources.getDimension(
-                    R.dimen.line_num_width).toInt() + dpToPx(context, 14)
-
-            val topPadding = if (isFirst) dp8 else 0
-
-            noteView.setPadding(leftPadding, topPadding, dp8, dp8)
+            noteView.bind(text, isFirst, bgColor, textColor)
 
             return noteView
         }
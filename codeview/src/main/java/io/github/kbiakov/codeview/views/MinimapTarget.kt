@@ -0,0 +1,36 @@
+package io.github.kbiakov.codeview.views
+
+/**
+ * @class MinimapTarget
+ *
+ * Content scrolled vertically by minimap.
+ */
+interface MinimapTarget {
+
+    /**
+     * Height of the whole content.
+     */
+    val contentHeight: Int
+
+    /**
+     * Height of the visible part of content.
+     */
+    val viewportHeight: Int
+
+    /**
+     * Vertical scroll offset.
+     */
+    val scrollOffset: Int
+
+    /**
+     * Listener of scroll changes.
+     */
+    var scrollListener: (() -> Unit)?
+
+    /**
+     * Jump to vertical scroll offset.
+     *
+     * @param offset Scroll offset
+     */
+    fun scrollToOffset(offset: Int)
+}
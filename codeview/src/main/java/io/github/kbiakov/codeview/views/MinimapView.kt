@@ -0,0 +1,108 @@
+package io.github.kbiakov.codeview.views
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import android.util.AttributeSet
+import android.view.MotionEvent
+import android.view.View
+import io.github.kbiakov.codeview.highlight.ColorThemeData
+import io.github.kbiakov.codeview.highlight.Minimap
+import io.github.kbiakov.codeview.highlight.color
+
+/**
+ * @class MinimapView
+ *
+ * Fast-scroll strip with overview of code (if minimap is built). Thumb
+ * shows visible part of content, touch on strip jumps to its position.
+ */
+class MinimapView @JvmOverloads constructor(
+        context: Context,
+        attrs: AttributeSet? = null,
+        defStyleAttr: Int = 0
+) : View(context, attrs, defStyleAttr) {
+
+    /**
+     * Overview of code, null to show only thumb.
+     */
+    var minimap: Minimap? = null
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    private var target: MinimapTarget? = null
+
+    private val bitmapPaint = Paint(Paint.FILTER_BITMAP_FLAG)
+    private val bgPaint = Paint()
+    private val thumbPaint = Paint()
+    private val dst = Rect()
+
+    /**
+     * Scroll content by strip.
+     *
+     * @param target Scrolled content, null to detach
+     */
+    fun setTarget(target: MinimapTarget?) {
+        if (this.target === target)
+            return
+
+        this.target?.scrollListener = null
+        this.target = target
+        target?.scrollListener = { invalidate() }
+        invalidate()
+    }
+
+    /**
+     * @param theme Color theme
+     */
+    fun setTheme(theme: ColorThemeData) {
+        bgPaint.color = theme.bgNum.color()
+        thumbPaint.color = theme.numColor.color()
+        thumbPaint.alpha = ThumbAlpha
+        invalidate()
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        canvas.drawRect(0f, 0f, width.toFloat(), height.toFloat(), bgPaint)
+
+        minimap?.apply {
+            val rows = rowCount
+            chunks.forEachIndexed { idx, chunk ->
+                chunk ?: return@forEachIndexed
+                dst.set(0, height * idx * Minimap.RowsPerChunk / rows,
+                        width, height * (idx + 1) * Minimap.RowsPerChunk / rows)
+                canvas.drawBitmap(chunk, null, dst, bitmapPaint)
+            }
+        }
+
+        target?.apply {
+            if (contentHeight > viewportHeight) {
+                val top = height.toLong() * scrollOffset / contentHeight
+                val bottom = height.toLong() * (scrollOffset + viewportHeight) / contentHeight
+                canvas.drawRect(0f, top.toFloat(), width.toFloat(), bottom.toFloat(), thumbPaint)
+            }
+        }
+    }
+
+    override fun onTouchEvent(event: MotionEvent): Boolean {
+        val target = target ?: return false
+        if (target.contentHeight <= target.viewportHeight)
+            return false
+
+        when (event.actionMasked) {
+            MotionEvent.ACTION_DOWN, MotionEvent.ACTION_MOVE -> {
+                parent?.requestDisallowInterceptTouchEvent(true)
+                // center thumb at touch position
+                val offset = (target.contentHeight * event.y / height).toInt() - target.viewportHeight / 2
+                target.scrollToOffset(offset)
+            }
+        }
+        return true
+    }
+
+    companion object {
+        private const val ThumbAlpha = 0x40
+    }
+}